@@ -0,0 +1,61 @@
+package org.ncgr.blast;
+
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Aggregating the fixture SequenceHits by motif and ranking the motifs, with the SequenceHits map and sorted set versus MotifIndex.
+ * One operation aggregates and ranks every hit.
+ *
+ * @author Sam Hokin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class AggregationBenchmark {
+
+    List<SequenceHit> sequenceHits;
+
+    @Setup
+    public void setup() throws Exception {
+        sequenceHits = BenchmarkFixtures.get().sequenceHits;
+    }
+
+    @Benchmark
+    public TreeSet<SequenceHits> sequenceHits() {
+        TreeMap<String,SequenceHits> seqHitsMap = new TreeMap<String,SequenceHits>();
+        for (SequenceHit seqHit : sequenceHits) {
+            SequenceHits seqHits = seqHitsMap.get(seqHit.sequence);
+            if (seqHits==null) {
+                seqHitsMap.put(seqHit.sequence, new SequenceHits(seqHit));
+            } else {
+                seqHits.addSequenceHit(seqHit);
+            }
+        }
+        return new TreeSet<SequenceHits>(seqHitsMap.values());
+    }
+
+    @Benchmark
+    public int[] motifIndex() {
+        MotifIndex motifIndex = new MotifIndex();
+        for (SequenceHit seqHit : sequenceHits) motifIndex.add(seqHit);
+        return motifIndex.rank();
+    }
+
+}
@@ -0,0 +1,204 @@
+package org.ncgr.blast;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Fixed synthetic inputs for the blast benchmarks, generated from a constant seed so every run and every machine sees the same data.
+ * The sizes follow a typical SequenceBlaster run: a few hundred 1 kb promoter sequences searched all-vs-all with word size 8,
+ * giving thousands of short ungapped HSPs, the longer ones discarded by the motif length cull.
+ *
+ * @author Sam Hokin
+ */
+public class BenchmarkFixtures {
+
+    public static final long SEED = 20181018L;
+    public static final int NUM_SEQUENCES = 200;
+    public static final int SEQUENCE_LENGTH = 1000;
+    public static final int HITS_PER_QUERY = 20;
+    public static final int MAX_HSPS_PER_HIT = 3;
+    public static final int MIN_HSP_LENGTH = 8;
+    public static final int MAX_HSP_LENGTH = 40;
+    public static final double MISMATCH_RATE = 0.1;
+    public static final int NUM_PLANTED = 40;         // motifs planted in every sequence, so that hits share motifs as real promoters do
+    public static final int PLANTED_LENGTH = 12;
+    public static final double PLANTED_HSP_RATE = 0.5; // fraction of HSPs which are exact planted-motif hits
+
+    static final String BASES = "ACGT";
+
+    static BenchmarkFixtures instance;
+
+    public List<String> ids = new ArrayList<String>();
+    public List<String> sequences = new ArrayList<String>();
+    int[][] plantedPositions = new int[NUM_SEQUENCES][NUM_PLANTED];
+    public byte[] xml;                  // blastn -outfmt 5 output for all queries, without a DOCTYPE so JAXB doesn't go looking for the DTD
+    public List<Hsp> hsps = new ArrayList<Hsp>();
+    public List<SequenceHit> sequenceHits = new ArrayList<SequenceHit>(); // the SequenceHits that pass the SequenceBlaster motif cull
+
+    /**
+     * Return the shared fixtures, generating them on first use.
+     */
+    public static synchronized BenchmarkFixtures get() throws Exception {
+        if (instance==null) instance = new BenchmarkFixtures();
+        return instance;
+    }
+
+    BenchmarkFixtures() throws Exception {
+        Random random = new Random(SEED);
+        String[] planted = new String[NUM_PLANTED];
+        for (int m=0; m<NUM_PLANTED; m++) planted[m] = randomSequence(random, PLANTED_LENGTH);
+        int slot = SEQUENCE_LENGTH/NUM_PLANTED;
+        for (int s=0; s<NUM_SEQUENCES; s++) {
+            ids.add("promoter"+s);
+            StringBuilder sequence = new StringBuilder(randomSequence(random, SEQUENCE_LENGTH));
+            for (int m=0; m<NUM_PLANTED; m++) {
+                // one planted motif per slot, at a random offset within it
+                int pos = m*slot + random.nextInt(slot-PLANTED_LENGTH+1);
+                sequence.replace(pos, pos+PLANTED_LENGTH, planted[m]);
+                plantedPositions[s][m] = pos;
+            }
+            sequences.add(sequence.toString());
+        }
+        StringBuilder out = new StringBuilder();
+        out.append("<?xml version=\"1.0\"?>\n");
+        out.append("<BlastOutput>\n");
+        out.append("  <BlastOutput_program>blastn</BlastOutput_program>\n");
+        out.append("  <BlastOutput_version>BLASTN 2.7.1+</BlastOutput_version>\n");
+        out.append("  <BlastOutput_reference>Zheng Zhang, Scott Schwartz, Lukas Wagner, and Webb Miller (2000), &quot;A greedy algorithm for aligning DNA sequences&quot;, J Comput Biol 2000; 7(1-2):203-14.</BlastOutput_reference>\n");
+        out.append("  <BlastOutput_db></BlastOutput_db>\n");
+        out.append("  <BlastOutput_query-ID>Query_1</BlastOutput_query-ID>\n");
+        out.append("  <BlastOutput_query-def>").append(ids.get(0)).append("</BlastOutput_query-def>\n");
+        out.append("  <BlastOutput_query-len>").append(SEQUENCE_LENGTH).append("</BlastOutput_query-len>\n");
+        out.append("  <BlastOutput_param>\n");
+        out.append("    <Parameters>\n");
+        out.append("      <Parameters_expect>10</Parameters_expect>\n");
+        out.append("      <Parameters_sc-match>1</Parameters_sc-match>\n");
+        out.append("      <Parameters_sc-mismatch>-2</Parameters_sc-mismatch>\n");
+        out.append("      <Parameters_gap-open>0</Parameters_gap-open>\n");
+        out.append("      <Parameters_gap-extend>0</Parameters_gap-extend>\n");
+        out.append("      <Parameters_filter>L;m;</Parameters_filter>\n");
+        out.append("    </Parameters>\n");
+        out.append("  </BlastOutput_param>\n");
+        out.append("<BlastOutput_iterations>\n");
+        for (int q=0; q<NUM_SEQUENCES; q++) {
+            out.append("<Iteration>\n");
+            out.append("  <Iteration_iter-num>").append(q+1).append("</Iteration_iter-num>\n");
+            out.append("  <Iteration_query-ID>Query_").append(q+1).append("</Iteration_query-ID>\n");
+            out.append("  <Iteration_query-def>").append(ids.get(q)).append("</Iteration_query-def>\n");
+            out.append("  <Iteration_query-len>").append(SEQUENCE_LENGTH).append("</Iteration_query-len>\n");
+            out.append("<Iteration_hits>\n");
+            for (int h=0; h<HITS_PER_QUERY; h++) {
+                int s = random.nextInt(NUM_SEQUENCES);
+                out.append("<Hit>\n");
+                out.append("  <Hit_num>").append(h+1).append("</Hit_num>\n");
+                out.append("  <Hit_id>Subject_").append(s+1).append("</Hit_id>\n");
+                out.append("  <Hit_def>").append(ids.get(s)).append("</Hit_def>\n");
+                out.append("  <Hit_accession>Subject_").append(s+1).append("</Hit_accession>\n");
+                out.append("  <Hit_len>").append(SEQUENCE_LENGTH).append("</Hit_len>\n");
+                out.append("  <Hit_hsps>\n");
+                int numHsps = 1+random.nextInt(MAX_HSPS_PER_HIT);
+                for (int n=0; n<numHsps; n++) appendHsp(out, random, q, s, n+1);
+                out.append("  </Hit_hsps>\n");
+                out.append("</Hit>\n");
+            }
+            out.append("</Iteration_hits>\n");
+            out.append("  <Iteration_stat>\n");
+            out.append("    <Statistics>\n");
+            out.append("      <Statistics_db-num>").append(NUM_SEQUENCES).append("</Statistics_db-num>\n");
+            out.append("      <Statistics_db-len>").append(NUM_SEQUENCES*SEQUENCE_LENGTH).append("</Statistics_db-len>\n");
+            out.append("      <Statistics_hsp-len>0</Statistics_hsp-len>\n");
+            out.append("      <Statistics_eff-space>0</Statistics_eff-space>\n");
+            out.append("      <Statistics_kappa>0.46</Statistics_kappa>\n");
+            out.append("      <Statistics_lambda>1.28</Statistics_lambda>\n");
+            out.append("      <Statistics_entropy>0.85</Statistics_entropy>\n");
+            out.append("    </Statistics>\n");
+            out.append("  </Iteration_stat>\n");
+            out.append("</Iteration>\n");
+        }
+        out.append("</BlastOutput_iterations>\n");
+        out.append("</BlastOutput>\n");
+        xml = out.toString().getBytes(StandardCharsets.UTF_8);
+
+        // the parsed HSPs and the culled SequenceHits built from them, as SequenceBlaster would
+        BlastOutput blastOutput = BlastUtils.getBlastOutput(new ByteArrayInputStream(xml));
+        for (Iteration iteration : blastOutput.getBlastOutputIterations().getIteration()) {
+            String queryID = iteration.getIterationQueryDef();
+            for (Hit hit : iteration.getIterationHits().getHit()) {
+                for (Hsp hsp : hit.getHitHsps().getHsp()) {
+                    hsps.add(hsp);
+                    SequenceHit seqHit = new SequenceHit(queryID, hit.getHitDef(), hsp);
+                    if ((seqHit.sequence.contains("C") || seqHit.sequence.contains("G")) && seqHit.sequence.length()<=SequenceBlaster.MAX_MOTIF_LENGTH) {
+                        sequenceHits.add(seqHit);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Append an ungapped plus-strand HSP between query q and subject s: either an exact hit on a planted motif,
+     * or a random stretch of the query with MISMATCH_RATE substitutions in the hit.
+     */
+    void appendHsp(StringBuilder out, Random random, int q, int s, int num) {
+        boolean exact = random.nextDouble()<PLANTED_HSP_RATE;
+        int length, queryFrom, hitFrom;
+        if (exact) {
+            int m = random.nextInt(NUM_PLANTED);
+            length = PLANTED_LENGTH;
+            queryFrom = plantedPositions[q][m];
+            hitFrom = plantedPositions[s][m];
+        } else {
+            length = MIN_HSP_LENGTH+random.nextInt(MAX_HSP_LENGTH-MIN_HSP_LENGTH+1);
+            queryFrom = random.nextInt(SEQUENCE_LENGTH-length);
+            hitFrom = random.nextInt(SEQUENCE_LENGTH-length);
+        }
+        String qseq = sequences.get(q).substring(queryFrom, queryFrom+length);
+        StringBuilder hseq = new StringBuilder(qseq);
+        StringBuilder midline = new StringBuilder();
+        int identity = 0;
+        for (int i=0; i<length; i++) {
+            if (!exact && random.nextDouble()<MISMATCH_RATE) {
+                char c;
+                do {
+                    c = BASES.charAt(random.nextInt(4));
+                } while (c==qseq.charAt(i));
+                hseq.setCharAt(i, c);
+                midline.append(' ');
+            } else {
+                identity++;
+                midline.append('|');
+            }
+        }
+        int score = identity-2*(length-identity);
+        out.append("    <Hsp>\n");
+        out.append("      <Hsp_num>").append(num).append("</Hsp_num>\n");
+        out.append("      <Hsp_bit-score>").append(String.format(Locale.ROOT, "%.4f", 0.9*score+1.0)).append("</Hsp_bit-score>\n");
+        out.append("      <Hsp_score>").append(score).append("</Hsp_score>\n");
+        out.append("      <Hsp_evalue>").append(String.format(Locale.ROOT, "%.5g", 1000.0*Math.pow(2.0, -score))).append("</Hsp_evalue>\n");
+        out.append("      <Hsp_query-from>").append(queryFrom+1).append("</Hsp_query-from>\n");
+        out.append("      <Hsp_query-to>").append(queryFrom+length).append("</Hsp_query-to>\n");
+        out.append("      <Hsp_hit-from>").append(hitFrom+1).append("</Hsp_hit-from>\n");
+        out.append("      <Hsp_hit-to>").append(hitFrom+length).append("</Hsp_hit-to>\n");
+        out.append("      <Hsp_query-frame>1</Hsp_query-frame>\n");
+        out.append("      <Hsp_hit-frame>1</Hsp_hit-frame>\n");
+        out.append("      <Hsp_identity>").append(identity).append("</Hsp_identity>\n");
+        out.append("      <Hsp_positive>").append(identity).append("</Hsp_positive>\n");
+        out.append("      <Hsp_gaps>0</Hsp_gaps>\n");
+        out.append("      <Hsp_align-len>").append(length).append("</Hsp_align-len>\n");
+        out.append("      <Hsp_qseq>").append(qseq).append("</Hsp_qseq>\n");
+        out.append("      <Hsp_hseq>").append(hseq).append("</Hsp_hseq>\n");
+        out.append("      <Hsp_midline>").append(midline).append("</Hsp_midline>\n");
+        out.append("    </Hsp>\n");
+    }
+
+    static String randomSequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i=0; i<length; i++) sb.append(BASES.charAt(random.nextInt(4)));
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.ncgr.blast;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.biojava.nbio.alignment.SimpleGapPenalty;
+import org.biojava.nbio.alignment.template.AbstractPairwiseSequenceAligner;
+import org.biojava.nbio.alignment.template.GapPenalty;
+import org.biojava.nbio.core.alignment.matrices.SubstitutionMatrixHelper;
+import org.biojava.nbio.core.alignment.template.SubstitutionMatrix;
+import org.biojava.nbio.core.sequence.DNASequence;
+import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The SequenceBlaster pairwise stage: aligning the ranked motifs against the top one, with one aligner reused per thread on the fork-join pool
+ * as SequenceBlaster does, with one aligner reused on a single thread, and with a new aligner per motif as before.
+ * One operation aligns every motif.
+ *
+ * @author Sam Hokin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class PairwiseBenchmark {
+
+    // the number of ranked motifs aligned against the top one
+    static final int NUM_MOTIFS = 500;
+
+    @Param({"SmithWaterman", "NeedlemanWunsch"})
+    public String aligner;
+
+    GapPenalty gapPenalty = new SimpleGapPenalty(SequenceBlaster.GOP, SequenceBlaster.GEP);
+    SubstitutionMatrix<NucleotideCompound> subMatrix = SubstitutionMatrixHelper.getNuc4_4();
+    DNASequence topMotif;
+    DNASequence[] motifs;
+
+    @Setup
+    public void setup() throws Exception {
+        SequenceBlaster.ALIGNER = aligner;
+        MotifIndex motifIndex = new MotifIndex();
+        for (SequenceHit seqHit : BenchmarkFixtures.get().sequenceHits) motifIndex.add(seqHit);
+        int[] ranked = motifIndex.rank();
+        int n = Math.min(NUM_MOTIFS+1, ranked.length);
+        topMotif = new DNASequence(motifIndex.getMotif(ranked[0]));
+        motifs = new DNASequence[n-1];
+        for (int i=1; i<n; i++) motifs[i-1] = new DNASequence(motifIndex.getMotif(ranked[i]));
+    }
+
+    @Benchmark
+    public double[] parallelReused() {
+        final double[] distances = new double[motifs.length];
+        final ThreadLocal<AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound>> aligners =
+            ThreadLocal.withInitial(() -> SequenceBlaster.newAligner(topMotif, gapPenalty, subMatrix));
+        IntStream.range(0, motifs.length).parallel().forEach(i -> {
+                AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound> pairAligner = aligners.get();
+                pairAligner.setQuery(motifs[i]);
+                distances[i] = pairAligner.getDistance();
+            });
+        return distances;
+    }
+
+    @Benchmark
+    public double[] sequentialReused() {
+        double[] distances = new double[motifs.length];
+        AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound> pairAligner = SequenceBlaster.newAligner(topMotif, gapPenalty, subMatrix);
+        for (int i=0; i<motifs.length; i++) {
+            pairAligner.setQuery(motifs[i]);
+            distances[i] = pairAligner.getDistance();
+        }
+        return distances;
+    }
+
+    @Benchmark
+    public double[] sequentialFresh() {
+        double[] distances = new double[motifs.length];
+        for (int i=0; i<motifs.length; i++) {
+            AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound> pairAligner = SequenceBlaster.newAligner(topMotif, gapPenalty, subMatrix);
+            pairAligner.setQuery(motifs[i]);
+            distances[i] = pairAligner.getDistance();
+        }
+        return distances;
+    }
+
+}
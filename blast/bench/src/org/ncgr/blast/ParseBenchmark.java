@@ -0,0 +1,61 @@
+package org.ncgr.blast;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing the fixture BLAST XML in full with JAXB versus one Hit at a time with BlastXmlStreamReader, with and without the motif HspFilter.
+ * One operation parses the whole document.
+ *
+ * @author Sam Hokin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ParseBenchmark {
+
+    byte[] xml;
+
+    @Setup
+    public void setup() throws Exception {
+        xml = BenchmarkFixtures.get().xml;
+    }
+
+    @Benchmark
+    public BlastOutput jaxb() throws Exception {
+        return BlastUtils.getBlastOutput(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) throws Exception {
+        try (BlastXmlStreamReader reader = new BlastXmlStreamReader(new ByteArrayInputStream(xml))) {
+            Hit hit;
+            while ((hit=reader.nextHit())!=null) blackhole.consume(hit);
+        }
+    }
+
+    @Benchmark
+    public void streamingFiltered(Blackhole blackhole) throws Exception {
+        try (BlastXmlStreamReader reader = new BlastXmlStreamReader(new ByteArrayInputStream(xml))) {
+            reader.setHspFilter(SequenceBlaster.MOTIF_FILTER);
+            Hit hit;
+            while ((hit=reader.nextHit())!=null) blackhole.consume(hit);
+        }
+    }
+
+}
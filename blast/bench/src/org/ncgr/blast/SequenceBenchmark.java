@@ -0,0 +1,86 @@
+package org.ncgr.blast;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * BlastUtils.combineDNASequences and scoreDNASequence over the fixture HSPs, through both the String and the byte[] entry points.
+ * One operation is one HSP.
+ *
+ * @author Sam Hokin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SequenceBenchmark {
+
+    // a fixed number of HSPs so that OperationsPerInvocation is a constant
+    static final int NUM_HSPS = 4000;
+
+    String[] qseqs = new String[NUM_HSPS];
+    String[] hseqs = new String[NUM_HSPS];
+    String[] combined = new String[NUM_HSPS];
+    byte[][] qbytes = new byte[NUM_HSPS][];
+    byte[][] hbytes = new byte[NUM_HSPS][];
+    byte[][] cbytes = new byte[NUM_HSPS][];
+    byte[] out = new byte[BenchmarkFixtures.MAX_HSP_LENGTH];
+
+    @Setup
+    public void setup() throws Exception {
+        List<Hsp> hsps = BenchmarkFixtures.get().hsps;
+        for (int i=0; i<NUM_HSPS; i++) {
+            Hsp hsp = hsps.get(i%hsps.size());
+            qseqs[i] = hsp.getHspQseq();
+            hseqs[i] = hsp.getHspHseq();
+            combined[i] = BlastUtils.combineDNASequences(qseqs[i], hseqs[i], false);
+            qbytes[i] = qseqs[i].getBytes(StandardCharsets.ISO_8859_1);
+            hbytes[i] = hseqs[i].getBytes(StandardCharsets.ISO_8859_1);
+            cbytes[i] = combined[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_HSPS)
+    public void combineStrings(Blackhole blackhole) {
+        for (int i=0; i<NUM_HSPS; i++) blackhole.consume(BlastUtils.combineDNASequences(qseqs[i], hseqs[i], false));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_HSPS)
+    public void combineBytes(Blackhole blackhole) {
+        for (int i=0; i<NUM_HSPS; i++) {
+            BlastUtils.combineDNASequences(qbytes[i], hbytes[i], qbytes[i].length, false, out);
+            blackhole.consume(out);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_HSPS)
+    public void scoreStrings(Blackhole blackhole) {
+        for (int i=0; i<NUM_HSPS; i++) blackhole.consume(BlastUtils.scoreDNASequence(combined[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_HSPS)
+    public void scoreBytes(Blackhole blackhole) {
+        for (int i=0; i<NUM_HSPS; i++) blackhole.consume(BlastUtils.scoreDNASequence(cbytes[i], cbytes[i].length));
+    }
+
+}
@@ -0,0 +1,527 @@
+package org.ncgr.blast;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * An indexed binary archive of BLAST results, memory-mapped for reading, so that the hits for a query are found and read without parsing anything.
+ * <p>
+ * The file holds a header, a string dictionary (query defs and IDs, hit IDs, defs and accessions, each stored once),
+ * a query table sorted by the UTF-8 bytes of the query def, fixed-width hit and Hsp records, and the aligned sequences. A query's hits are contiguous,
+ * as are a hit's Hsps, so findQuery() is a binary search over the query table and the rest is arithmetic on record offsets.
+ * Iterations with the same query def, for example from several XML files, are merged; every iteration with hits must have a query def.
+ * Numbers are stored as ints and doubles, so Hsps built by getHits() carry their Java String forms, e.g. an evalue of 1.0E-5 rather than blastn's 1e-05.
+ * <p>
+ * The aligned sequences are written to a temporary file as they are read and are not interned, so conversion keeps only the dictionary and
+ * the fixed-width records on the heap. Not kept: the BlastOutput header, parameters and statistics, iteration messages and statistics,
+ * and the Hsp pattern-from, pattern-to and density fields.
+ * The archive is limited to 2GB, the size of a single mapping.
+ *
+ * @author Sam Hokin
+ */
+public class BlastArchive implements Closeable {
+
+    static final int MAGIC = 0x42415232; // "BAR2"
+    static final int HEADER_SIZE = 44;
+
+    // query record: def, ID (string indexes), length, first hit, hit count
+    static final int QUERY_SIZE = 20;
+    // hit record: query, num, ID, def, accession (string indexes), length, first Hsp, Hsp count
+    static final int HIT_SIZE = 32;
+    // Hsp record: num, score, query from/to, hit from/to, query/hit frame, identity, positive, gaps, align len (ints),
+    // bit score, evalue (doubles), qseq, hseq, midline (offset and length in the sequence section, offset -1 for none)
+    static final int HSP_SIZE = 88;
+
+    RandomAccessFile raf;
+    MappedByteBuffer buffer;
+    int numStrings;
+    int numQueries;
+    int numHits;
+    int numHsps;
+    int stringOffsetsPos;
+    int stringDataPos;
+    int queriesPos;
+    int hitsPos;
+    int hspsPos;
+    int sequencesPos;
+
+    /**
+     * Open an archive for reading.
+     *
+     * @param file the archive file
+     */
+    public BlastArchive(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        if (raf.length()>Integer.MAX_VALUE) throw new IOException("BlastArchive "+file+" is larger than 2GB");
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        if (raf.length()<HEADER_SIZE || buffer.getInt(0)!=MAGIC) throw new IOException(file+" is not a BlastArchive");
+        numStrings = buffer.getInt(4);
+        numQueries = buffer.getInt(8);
+        numHits = buffer.getInt(12);
+        numHsps = buffer.getInt(16);
+        stringOffsetsPos = buffer.getInt(20);
+        stringDataPos = buffer.getInt(24);
+        queriesPos = buffer.getInt(28);
+        hitsPos = buffer.getInt(32);
+        hspsPos = buffer.getInt(36);
+        sequencesPos = buffer.getInt(40);
+    }
+
+    public int getNumQueries() { return numQueries; }
+    public int getNumHits() { return numHits; }
+    public int getNumHsps() { return numHsps; }
+
+    /**
+     * Return the query number with the given query def, or -1 if there isn't one.
+     */
+    public int findQuery(String queryDef) {
+        byte[] key = queryDef.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = numQueries-1;
+        while (lo<=hi) {
+            int mid = (lo+hi)>>>1;
+            int cmp = compareString(buffer.getInt(queriesPos+mid*QUERY_SIZE), key);
+            if (cmp<0) {
+                lo = mid+1;
+            } else if (cmp>0) {
+                hi = mid-1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public String getQueryDef(int q) { return getString(buffer.getInt(queriesPos+q*QUERY_SIZE)); }
+    public String getQueryID(int q) { return getString(buffer.getInt(queriesPos+q*QUERY_SIZE+4)); }
+    public int getQueryLen(int q) { return buffer.getInt(queriesPos+q*QUERY_SIZE+8); }
+    public int getFirstHit(int q) { return buffer.getInt(queriesPos+q*QUERY_SIZE+12); }
+    public int getHitCount(int q) { return buffer.getInt(queriesPos+q*QUERY_SIZE+16); }
+
+    public int getHitQuery(int h) { return buffer.getInt(hitsPos+h*HIT_SIZE); }
+    public int getHitNum(int h) { return buffer.getInt(hitsPos+h*HIT_SIZE+4); }
+    public String getHitID(int h) { return getString(buffer.getInt(hitsPos+h*HIT_SIZE+8)); }
+    public String getHitDef(int h) { return getString(buffer.getInt(hitsPos+h*HIT_SIZE+12)); }
+    public String getHitAccession(int h) { return getString(buffer.getInt(hitsPos+h*HIT_SIZE+16)); }
+    public int getHitLen(int h) { return buffer.getInt(hitsPos+h*HIT_SIZE+20); }
+    public int getFirstHsp(int h) { return buffer.getInt(hitsPos+h*HIT_SIZE+24); }
+    public int getHspCount(int h) { return buffer.getInt(hitsPos+h*HIT_SIZE+28); }
+
+    public int getHspNum(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE); }
+    public int getHspScore(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+4); }
+    public int getHspQueryFrom(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+8); }
+    public int getHspQueryTo(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+12); }
+    public int getHspHitFrom(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+16); }
+    public int getHspHitTo(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+20); }
+    public int getHspQueryFrame(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+24); }
+    public int getHspHitFrame(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+28); }
+    public int getHspIdentity(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+32); }
+    public int getHspPositive(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+36); }
+    public int getHspGaps(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+40); }
+    public int getHspAlignLen(int s) { return buffer.getInt(hspsPos+s*HSP_SIZE+44); }
+    public double getHspBitScore(int s) { return buffer.getDouble(hspsPos+s*HSP_SIZE+48); }
+    public double getHspEvalue(int s) { return buffer.getDouble(hspsPos+s*HSP_SIZE+56); }
+    public String getHspQseq(int s) { return getSequence(hspsPos+s*HSP_SIZE+64); }
+    public String getHspHseq(int s) { return getSequence(hspsPos+s*HSP_SIZE+72); }
+    public String getHspMidline(int s) { return getSequence(hspsPos+s*HSP_SIZE+80); }
+
+    /**
+     * Return the hits for the given query def as JAXB Hits with their Hsps, or an empty list if the query isn't in the archive.
+     */
+    public List<Hit> getHits(String queryDef) {
+        List<Hit> hits = new ArrayList<Hit>();
+        int q = findQuery(queryDef);
+        if (q<0) return hits;
+        int first = getFirstHit(q);
+        for (int h=first; h<first+getHitCount(q); h++) {
+            Hit hit = new Hit();
+            hit.setHitNum(String.valueOf(getHitNum(h)));
+            hit.setHitId(getHitID(h));
+            hit.setHitDef(getHitDef(h));
+            hit.setHitAccession(getHitAccession(h));
+            hit.setHitLen(String.valueOf(getHitLen(h)));
+            HitHsps hsps = new HitHsps();
+            int firstHsp = getFirstHsp(h);
+            for (int s=firstHsp; s<firstHsp+getHspCount(h); s++) hsps.getHsp().add(getHsp(s));
+            hit.setHitHsps(hsps);
+            hits.add(hit);
+        }
+        return hits;
+    }
+
+    /**
+     * Return the given Hsp record as a JAXB Hsp.
+     */
+    public Hsp getHsp(int s) {
+        Hsp hsp = new Hsp();
+        hsp.setHspNum(String.valueOf(getHspNum(s)));
+        hsp.setHspBitScore(String.valueOf(getHspBitScore(s)));
+        hsp.setHspScore(String.valueOf(getHspScore(s)));
+        hsp.setHspEvalue(String.valueOf(getHspEvalue(s)));
+        hsp.setHspQueryFrom(String.valueOf(getHspQueryFrom(s)));
+        hsp.setHspQueryTo(String.valueOf(getHspQueryTo(s)));
+        hsp.setHspHitFrom(String.valueOf(getHspHitFrom(s)));
+        hsp.setHspHitTo(String.valueOf(getHspHitTo(s)));
+        hsp.setHspQueryFrame(String.valueOf(getHspQueryFrame(s)));
+        hsp.setHspHitFrame(String.valueOf(getHspHitFrame(s)));
+        hsp.setHspIdentity(String.valueOf(getHspIdentity(s)));
+        hsp.setHspPositive(String.valueOf(getHspPositive(s)));
+        hsp.setHspGaps(String.valueOf(getHspGaps(s)));
+        hsp.setHspAlignLen(String.valueOf(getHspAlignLen(s)));
+        hsp.setHspQseq(getHspQseq(s));
+        hsp.setHspHseq(getHspHseq(s));
+        hsp.setHspMidline(getHspMidline(s));
+        return hsp;
+    }
+
+    /**
+     * Return the string with the given dictionary index, or null for index -1.
+     */
+    public String getString(int index) {
+        if (index<0) return null;
+        int start = buffer.getInt(stringOffsetsPos+index*4);
+        int end = buffer.getInt(stringOffsetsPos+(index+1)*4);
+        byte[] bytes = new byte[end-start];
+        for (int i=0; i<bytes.length; i++) bytes[i] = buffer.get(stringDataPos+start+i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the sequence whose offset and length are stored at the given position of an Hsp record, or null if its offset is -1.
+     */
+    String getSequence(int pos) {
+        int offset = buffer.getInt(pos);
+        if (offset<0) return null;
+        byte[] bytes = new byte[buffer.getInt(pos+4)];
+        for (int i=0; i<bytes.length; i++) bytes[i] = buffer.get(sequencesPos+offset+i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Close the archive file; the mapping is released when it is garbage collected.
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * Compare the UTF-8 bytes of the given dictionary string with key, as unsigned bytes.
+     */
+    int compareString(int index, byte[] key) {
+        int start = stringDataPos+buffer.getInt(stringOffsetsPos+index*4);
+        int length = buffer.getInt(stringOffsetsPos+(index+1)*4)-buffer.getInt(stringOffsetsPos+index*4);
+        int n = Math.min(length, key.length);
+        for (int i=0; i<n; i++) {
+            int cmp = (buffer.get(start+i) & 0xFF)-(key[i] & 0xFF);
+            if (cmp!=0) return cmp;
+        }
+        return length-key.length;
+    }
+
+    /**
+     * Write a BlastOutput to an archive file.
+     */
+    public static void write(BlastOutput blastOutput, File file) throws IOException {
+        try (Writer writer = new Writer()) {
+            BlastOutputIterations iterations = blastOutput.getBlastOutputIterations();
+            if (iterations!=null) {
+                for (Iteration iteration : iterations.getIteration()) {
+                    if (iteration.getIterationHits()==null) continue;
+                    for (Hit hit : iteration.getIterationHits().getHit()) writer.add(iteration, hit);
+                }
+            }
+            writer.write(file);
+        }
+    }
+
+    /**
+     * Convert blast XML files to an archive file, streaming each with BlastXmlStreamReader.
+     *
+     * @param xmlFilenames the blast XML (-outfmt 5) files
+     * @param file the archive file
+     */
+    public static void convert(List<String> xmlFilenames, File file) throws IOException, XMLStreamException {
+        try (Writer writer = new Writer()) {
+            for (String xmlFilename : xmlFilenames) {
+                try (BlastXmlStreamReader reader = new BlastXmlStreamReader(xmlFilename)) {
+                    Hit hit;
+                    while ((hit=reader.nextHit())!=null) writer.add(reader.getIteration(), hit);
+                }
+            }
+            writer.write(file);
+        }
+    }
+
+    /**
+     * Command-line converter.
+     */
+    public static void main(String[] args) {
+        if (args.length<2) {
+            System.err.println("Usage: BlastArchive <archive-file> <blast-xml-file> [blast-xml-file] ...");
+            System.exit(1);
+        }
+        try {
+            convert(Arrays.asList(args).subList(1, args.length), new File(args[0]));
+            try (BlastArchive archive = new BlastArchive(new File(args[0]))) {
+                System.out.println(args[0]+": "+archive.getNumQueries()+" queries, "+archive.getNumHits()+" hits, "+archive.getNumHsps()+" HSPs.");
+            }
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Accumulates hits in primitive columns, and their aligned sequences in a temporary file, then writes them grouped by query.
+     */
+    static class Writer implements Closeable {
+        StringDictionary strings = new StringDictionary();
+        HashMap<Integer,Integer> queryNumbers = new HashMap<Integer,Integer>(); // query def string index -> query number
+        IntColumn queryDefs = new IntColumn();
+        IntColumn queryIDs = new IntColumn();
+        IntColumn queryLens = new IntColumn();
+        IntColumn queryHitCounts = new IntColumn();
+        // hits, each a HIT_SIZE/4 int record with the query number first
+        IntColumn hits = new IntColumn();
+        // Hsps, each twelve ints, two doubles and three sequence offsets and lengths
+        IntColumn hspInts = new IntColumn();
+        DoubleColumn hspDoubles = new DoubleColumn();
+        IntColumn hspSequences = new IntColumn();
+        int numHits = 0;
+        int numHsps = 0;
+        // the sequence section, written as Hsps are added
+        File sequenceFile;
+        DataOutputStream sequences;
+        long sequenceLength = 0;
+
+        Writer() throws IOException {
+            sequenceFile = File.createTempFile("blastarchive", ".seq");
+            sequences = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sequenceFile), 65536));
+        }
+
+        void add(Iteration iteration, Hit hit) throws IOException {
+            if (iteration.getIterationQueryDef()==null) {
+                throw new IOException("Iteration "+iteration.getIterationIterNum()+" has no query def, by which BlastArchive is keyed");
+            }
+            int def = intern(iteration.getIterationQueryDef());
+            Integer q = queryNumbers.get(def);
+            if (q==null) {
+                q = queryDefs.size;
+                queryNumbers.put(def, q);
+                queryDefs.add(def);
+                queryIDs.add(intern(iteration.getIterationQueryID()));
+                queryLens.add(parseInt(iteration.getIterationQueryLen()));
+                queryHitCounts.add(0);
+            }
+            queryHitCounts.set(q, queryHitCounts.get(q)+1);
+            List<Hsp> hsps = hit.getHitHsps()==null ? new ArrayList<Hsp>() : hit.getHitHsps().getHsp();
+            hits.add(q);
+            hits.add(parseInt(hit.getHitNum()));
+            hits.add(intern(hit.getHitId()));
+            hits.add(intern(hit.getHitDef()));
+            hits.add(intern(hit.getHitAccession()));
+            hits.add(parseInt(hit.getHitLen()));
+            hits.add(numHsps);
+            hits.add(hsps.size());
+            numHits++;
+            for (Hsp hsp : hsps) {
+                hspInts.add(parseInt(hsp.getHspNum()));
+                hspInts.add(parseInt(hsp.getHspScore()));
+                hspInts.add(parseInt(hsp.getHspQueryFrom()));
+                hspInts.add(parseInt(hsp.getHspQueryTo()));
+                hspInts.add(parseInt(hsp.getHspHitFrom()));
+                hspInts.add(parseInt(hsp.getHspHitTo()));
+                hspInts.add(parseInt(hsp.getHspQueryFrame()));
+                hspInts.add(parseInt(hsp.getHspHitFrame()));
+                hspInts.add(parseInt(hsp.getHspIdentity()));
+                hspInts.add(parseInt(hsp.getHspPositive()));
+                hspInts.add(parseInt(hsp.getHspGaps()));
+                hspInts.add(parseInt(hsp.getHspAlignLen()));
+                hspDoubles.add(parseDouble(hsp.getHspBitScore()));
+                hspDoubles.add(parseDouble(hsp.getHspEvalue()));
+                addSequence(hsp.getHspQseq());
+                addSequence(hsp.getHspHseq());
+                addSequence(hsp.getHspMidline());
+                numHsps++;
+            }
+        }
+
+        /**
+         * Append a sequence to the sequence section, recording its offset and length, or -1 and 0 if it is null.
+         */
+        void addSequence(String s) throws IOException {
+            if (s==null) {
+                hspSequences.add(-1);
+                hspSequences.add(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            if (sequenceLength+bytes.length>Integer.MAX_VALUE) throw new IOException("BlastArchive would be larger than 2GB");
+            hspSequences.add((int) sequenceLength);
+            hspSequences.add(bytes.length);
+            sequences.write(bytes);
+            sequenceLength += bytes.length;
+        }
+
+        /**
+         * Delete the temporary sequence file.
+         */
+        public void close() throws IOException {
+            sequences.close();
+            sequenceFile.delete();
+        }
+
+        void write(File file) throws IOException {
+            int numStrings = strings.size();
+            int numQueries = queryDefs.size;
+            byte[][] utf8 = new byte[numStrings][];
+            long dataLength = 0;
+            for (int i=0; i<numStrings; i++) {
+                utf8[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                dataLength += utf8[i].length;
+            }
+
+            // queries in UTF-8 byte order of their defs, and each query's first hit in that order
+            Integer[] order = new Integer[numQueries];
+            for (int q=0; q<numQueries; q++) order[q] = q;
+            Arrays.sort(order, (a, b) -> compareBytes(utf8[queryDefs.get(a)], utf8[queryDefs.get(b)]));
+            int[] rank = new int[numQueries];
+            for (int r=0; r<numQueries; r++) rank[order[r]] = r;
+            int[] firstHits = new int[numQueries];
+            int next = 0;
+            for (int r=0; r<numQueries; r++) {
+                firstHits[order[r]] = next;
+                next += queryHitCounts.get(order[r]);
+            }
+            // hit records in query order, stable within a query
+            int[] hitOrder = new int[numHits];
+            int[] fill = firstHits.clone();
+            for (int h=0; h<numHits; h++) hitOrder[fill[hits.get(h*8)]++] = h;
+
+            long stringOffsetsPos = HEADER_SIZE;
+            long stringDataPos = stringOffsetsPos+4L*(numStrings+1);
+            long queriesPos = stringDataPos+dataLength;
+            long hitsPos = queriesPos+(long) QUERY_SIZE*numQueries;
+            long hspsPos = hitsPos+(long) HIT_SIZE*numHits;
+            long sequencesPos = hspsPos+(long) HSP_SIZE*numHsps;
+            long end = sequencesPos+sequenceLength;
+            if (end>Integer.MAX_VALUE) throw new IOException("BlastArchive would be larger than 2GB");
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536))) {
+                out.writeInt(MAGIC);
+                out.writeInt(numStrings);
+                out.writeInt(numQueries);
+                out.writeInt(numHits);
+                out.writeInt(numHsps);
+                out.writeInt((int) stringOffsetsPos);
+                out.writeInt((int) stringDataPos);
+                out.writeInt((int) queriesPos);
+                out.writeInt((int) hitsPos);
+                out.writeInt((int) hspsPos);
+                out.writeInt((int) sequencesPos);
+                int offset = 0;
+                for (int i=0; i<numStrings; i++) {
+                    out.writeInt(offset);
+                    offset += utf8[i].length;
+                }
+                out.writeInt(offset);
+                for (int i=0; i<numStrings; i++) out.write(utf8[i]);
+                for (int r=0; r<numQueries; r++) {
+                    int q = order[r];
+                    out.writeInt(queryDefs.get(q));
+                    out.writeInt(queryIDs.get(q));
+                    out.writeInt(queryLens.get(q));
+                    out.writeInt(firstHits[q]);
+                    out.writeInt(queryHitCounts.get(q));
+                }
+                for (int h : hitOrder) {
+                    out.writeInt(rank[hits.get(h*8)]);
+                    for (int i=1; i<8; i++) out.writeInt(hits.get(h*8+i));
+                }
+                for (int s=0; s<numHsps; s++) {
+                    for (int i=0; i<12; i++) out.writeInt(hspInts.get(s*12+i));
+                    out.writeDouble(hspDoubles.get(s*2));
+                    out.writeDouble(hspDoubles.get(s*2+1));
+                    for (int i=0; i<6; i++) out.writeInt(hspSequences.get(s*6+i));
+                }
+                sequences.close();
+                Files.copy(sequenceFile.toPath(), out);
+            }
+        }
+
+        int intern(String s) {
+            return s==null ? -1 : strings.intern(s);
+        }
+
+        static int parseInt(String s) {
+            return s==null ? 0 : Integer.parseInt(s.trim());
+        }
+
+        static double parseDouble(String s) {
+            return s==null ? Double.NaN : Double.parseDouble(s.trim());
+        }
+
+        static int compareBytes(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i=0; i<n; i++) {
+                int cmp = (a[i] & 0xFF)-(b[i] & 0xFF);
+                if (cmp!=0) return cmp;
+            }
+            return a.length-b.length;
+        }
+    }
+
+    /**
+     * A growable int array.
+     */
+    static class IntColumn {
+        int[] values = new int[1024];
+        int size = 0;
+
+        void add(int value) {
+            if (size==values.length) values = Arrays.copyOf(values, size*2);
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        void set(int i, int value) {
+            values[i] = value;
+        }
+    }
+
+    /**
+     * A growable double array.
+     */
+    static class DoubleColumn {
+        double[] values = new double[1024];
+        int size = 0;
+
+        void add(double value) {
+            if (size==values.length) values = Arrays.copyOf(values, size*2);
+            values[size++] = value;
+        }
+
+        double get(int i) {
+            return values[i];
+        }
+    }
+
+}
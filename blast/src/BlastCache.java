@@ -0,0 +1,370 @@
+package org.ncgr.blast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A content-addressed, on-disk cache of blastn results. Entries are keyed by the SHA-256 of the query file bytes, the subject file bytes
+ * and the normalized parameters, so renamed or temporary files with the same contents share an entry, and are stored as deflated
+ * BlastOutputCodec encodings, so a hit skips both the blastn process and the XML parse.
+ * <p>
+ * The total size of the entries is bounded: when it is exceeded the least recently used entries are deleted. Recency is kept across runs
+ * in the files' modification times. Methods may be called from several threads.
+ * <p>
+ * Besides whole BlastOutputs, an entry may hold a stream of hits with their iterations, written by a HitWriter as they are parsed and
+ * replayed by getHits(), so that a result too big to hold in memory can be cached as well.
+ *
+ * @author Sam Hokin
+ */
+public class BlastCache {
+
+    static final String SUFFIX = ".boc";
+    static final int HITS_MAGIC = 0x424f4831; // "BOH1"
+    static final int END_RECORD = 0;
+    static final int ITERATION_RECORD = 1;
+    static final int HIT_RECORD = 2;
+    static final int BUFFER_SIZE = 65536;
+
+    File dir;
+    long maxBytes;
+    long totalBytes = 0;
+
+    // key -> entry size, in access order so the eldest is the least recently used
+    LinkedHashMap<String,Long> entries = new LinkedHashMap<String,Long>(16, 0.75f, true);
+
+    AtomicLong hits = new AtomicLong();
+    AtomicLong misses = new AtomicLong();
+
+    /**
+     * Open a cache in the given directory, which is created if necessary, picking up any entries already there.
+     *
+     * @param dir the cache directory
+     * @param maxBytes the maximum total size of the entries
+     */
+    public BlastCache(File dir, long maxBytes) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create cache directory "+dir);
+        }
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            entries.put(name.substring(0, name.length()-SUFFIX.length()), file.length());
+            totalBytes += file.length();
+        }
+        evict();
+    }
+
+    /**
+     * Return the cache key for a blastn run: the hex SHA-256 of the query and subject file contents and the parameters,
+     * with dashes removed from the names, sorted by name, and without outfmt, out, subject and query, which BlastUtils sets itself.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters the blastn parameters, as given to BlastUtils.runBlastn
+     * @return the key
+     */
+    public String key(String subjectFilename, String queryFilename, Map<String,String> parameters) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            // every Java platform has SHA-256
+            throw new RuntimeException(ex);
+        }
+        digestFile(digest, queryFilename);
+        digestFile(digest, subjectFilename);
+        TreeMap<String,String> normalized = new TreeMap<String,String>();
+        for (String key : parameters.keySet()) {
+            String parameter = key.replace("-","");
+            if (!parameter.equals("outfmt") &&
+                !parameter.equals("out") &&
+                !parameter.equals("subject") &&
+                !parameter.equals("query")) {
+                String value = parameters.get(key);
+                normalized.put(parameter, value==null ? "" : value);
+            }
+        }
+        for (String parameter : normalized.keySet()) {
+            digestString(digest, parameter);
+            digestString(digest, normalized.get(parameter));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b>>4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Return the cached BlastOutput for the given key, or null if there isn't one. Counts a hit or a miss.
+     */
+    public BlastOutput get(String key) throws IOException {
+        synchronized (this) {
+            if (entries.get(key)==null) {
+                misses.incrementAndGet();
+                return null;
+            }
+        }
+        File file = getFile(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), BUFFER_SIZE))) {
+            BlastOutput blastOutput = BlastOutputCodec.read(in);
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return blastOutput;
+        } catch (FileNotFoundException ex) {
+            // evicted by another thread or process since the lookup
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size!=null) totalBytes -= size;
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Replay the hits cached under the given key by a HitWriter to the consumer, returning false if there isn't an entry. Counts a hit or a miss.
+     */
+    public boolean getHits(String key, HitConsumer consumer) throws IOException {
+        synchronized (this) {
+            if (entries.get(key)==null) {
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+        File file = getFile(key);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), BUFFER_SIZE))) {
+            if (in.readInt()!=HITS_MAGIC) throw new IOException("Not a cached hit stream: "+file);
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            Iteration iteration = null;
+            int record;
+            while ((record=in.readByte())!=END_RECORD) {
+                if (record==ITERATION_RECORD) {
+                    iteration = BlastOutputCodec.readIteration(in);
+                } else {
+                    consumer.accept(iteration, BlastOutputCodec.readHit(in));
+                }
+            }
+            return true;
+        } catch (FileNotFoundException ex) {
+            // evicted by another thread or process since the lookup
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size!=null) totalBytes -= size;
+            }
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Store a BlastOutput under the given key, evicting least recently used entries if the cache is then too big.
+     */
+    public void put(String key, BlastOutput blastOutput) throws IOException {
+        // write to a temporary file and move it into place so readers never see a partial entry
+        File temp = File.createTempFile(key, ".tmp", dir);
+        try {
+            try (DataOutputStream out = openTemp(temp)) {
+                BlastOutputCodec.write(blastOutput, out);
+            }
+            install(key, temp);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Start a stream of hits to be stored under the given key once the writer is committed; closing it uncommitted discards it.
+     */
+    public HitWriter putHits(String key) throws IOException {
+        return new HitWriter(key);
+    }
+
+    /**
+     * Writes hits to a temporary file as they are parsed, which becomes the cache entry for its key when committed.
+     */
+    public class HitWriter implements Closeable {
+
+        String key;
+        File temp;
+        DataOutputStream out;
+        Iteration lastIteration = null;
+        boolean committed = false;
+
+        HitWriter(String key) throws IOException {
+            this.key = key;
+            temp = File.createTempFile(key, ".tmp", dir);
+            out = openTemp(temp);
+            out.writeInt(HITS_MAGIC);
+        }
+
+        /**
+         * Write a hit, preceded by its iteration, without hits, if that differs from the last hit's.
+         */
+        public void add(Iteration iteration, Hit hit) throws IOException {
+            if (iteration!=lastIteration) {
+                lastIteration = iteration;
+                out.writeByte(ITERATION_RECORD);
+                BlastOutputCodec.writeIteration(out, iteration);
+            }
+            out.writeByte(HIT_RECORD);
+            BlastOutputCodec.writeHit(out, hit);
+        }
+
+        /**
+         * Finish the stream and make it the cache entry for the key, evicting least recently used entries if the cache is then too big.
+         */
+        public void commit() throws IOException {
+            out.writeByte(END_RECORD);
+            out.close();
+            install(key, temp);
+            committed = true;
+        }
+
+        /**
+         * Discard the stream if it wasn't committed.
+         */
+        public void close() throws IOException {
+            if (!committed) {
+                out.close();
+                temp.delete();
+            }
+        }
+
+    }
+
+    /**
+     * Receives the hits replayed by getHits(), with their iterations.
+     */
+    public interface HitConsumer {
+        public void accept(Iteration iteration, Hit hit) throws IOException;
+    }
+
+    /**
+     * Open a deflating stream to a temporary entry file.
+     */
+    DataOutputStream openTemp(File temp) throws IOException {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        return new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(temp), deflater) {
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            }, BUFFER_SIZE));
+    }
+
+    /**
+     * Move a finished temporary file into place as the entry for the given key, so readers never see a partial entry, and account for its size.
+     */
+    void install(String key, File temp) throws IOException {
+        Files.move(temp.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        long size = getFile(key).length();
+        synchronized (this) {
+            Long old = entries.put(key, size);
+            if (old!=null) totalBytes -= old;
+            totalBytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Return the number of lookups which found an entry.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Return the number of lookups which didn't find an entry.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Return the number of entries.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Return the total size of the entries in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    File getFile(String key) {
+        return new File(dir, key+SUFFIX);
+    }
+
+    /**
+     * Delete least recently used entries until the total size is within maxBytes.
+     */
+    synchronized void evict() {
+        Iterator<Map.Entry<String,Long>> iterator = entries.entrySet().iterator();
+        while (totalBytes>maxBytes && iterator.hasNext()) {
+            Map.Entry<String,Long> eldest = iterator.next();
+            getFile(eldest.getKey()).delete();
+            totalBytes -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    static void digestFile(MessageDigest digest, String filename) throws IOException {
+        File file = new File(filename);
+        digestLong(digest, file.length());
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n=in.read(buffer))>0) digest.update(buffer, 0, n);
+        }
+    }
+
+    /**
+     * Digest a String prefixed by its length, so that adjacent Strings can't run together.
+     */
+    static void digestString(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        digestLong(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+    static void digestLong(MessageDigest digest, long value) {
+        for (int shift=56; shift>=0; shift-=8) digest.update((byte) (value>>>shift));
+    }
+
+}
@@ -0,0 +1,309 @@
+package org.ncgr.blast;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Static methods to write a BlastOutput to a compact binary stream and read it back without any XML parsing.
+ * Every field is kept, as its String value, so a decoded BlastOutput is equal field for field to the one encoded.
+ * Strings and list sizes are written with variable-length int prefixes, with 0 standing for null.
+ *
+ * @author Sam Hokin
+ */
+public class BlastOutputCodec {
+
+    // written first so stale or foreign files are rejected
+    static final int MAGIC = 0x424f4331; // "BOC1"
+
+    /**
+     * Write a BlastOutput to the given stream.
+     */
+    public static void write(BlastOutput blastOutput, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        writeString(out, blastOutput.getBlastOutputProgram());
+        writeString(out, blastOutput.getBlastOutputVersion());
+        writeString(out, blastOutput.getBlastOutputReference());
+        writeString(out, blastOutput.getBlastOutputDb());
+        writeString(out, blastOutput.getBlastOutputQueryID());
+        writeString(out, blastOutput.getBlastOutputQueryDef());
+        writeString(out, blastOutput.getBlastOutputQueryLen());
+        writeString(out, blastOutput.getBlastOutputQuerySeq());
+        BlastOutputParam param = blastOutput.getBlastOutputParam();
+        out.writeBoolean(param!=null);
+        if (param!=null) writeParameters(out, param.getParameters());
+        BlastOutputIterations iterations = blastOutput.getBlastOutputIterations();
+        writeSize(out, iterations==null ? null : iterations.getIteration());
+        if (iterations!=null) {
+            for (Iteration iteration : iterations.getIteration()) writeIteration(out, iteration);
+        }
+        BlastOutputMbstat mbstat = blastOutput.getBlastOutputMbstat();
+        out.writeBoolean(mbstat!=null);
+        if (mbstat!=null) writeStatistics(out, mbstat.getStatistics());
+    }
+
+    /**
+     * Read a BlastOutput from the given stream.
+     */
+    public static BlastOutput read(DataInputStream in) throws IOException {
+        if (in.readInt()!=MAGIC) throw new IOException("Not an encoded BlastOutput");
+        BlastOutput blastOutput = new BlastOutput();
+        blastOutput.setBlastOutputProgram(readString(in));
+        blastOutput.setBlastOutputVersion(readString(in));
+        blastOutput.setBlastOutputReference(readString(in));
+        blastOutput.setBlastOutputDb(readString(in));
+        blastOutput.setBlastOutputQueryID(readString(in));
+        blastOutput.setBlastOutputQueryDef(readString(in));
+        blastOutput.setBlastOutputQueryLen(readString(in));
+        blastOutput.setBlastOutputQuerySeq(readString(in));
+        if (in.readBoolean()) {
+            BlastOutputParam param = new BlastOutputParam();
+            param.setParameters(readParameters(in));
+            blastOutput.setBlastOutputParam(param);
+        }
+        int numIterations = readSize(in);
+        if (numIterations>=0) {
+            BlastOutputIterations iterations = new BlastOutputIterations();
+            List<Iteration> list = iterations.getIteration();
+            for (int i=0; i<numIterations; i++) list.add(readIteration(in));
+            blastOutput.setBlastOutputIterations(iterations);
+        }
+        if (in.readBoolean()) {
+            BlastOutputMbstat mbstat = new BlastOutputMbstat();
+            mbstat.setStatistics(readStatistics(in));
+            blastOutput.setBlastOutputMbstat(mbstat);
+        }
+        return blastOutput;
+    }
+
+    static void writeIteration(DataOutputStream out, Iteration iteration) throws IOException {
+        writeString(out, iteration.getIterationIterNum());
+        writeString(out, iteration.getIterationQueryID());
+        writeString(out, iteration.getIterationQueryDef());
+        writeString(out, iteration.getIterationQueryLen());
+        writeString(out, iteration.getIterationMessage());
+        IterationHits hits = iteration.getIterationHits();
+        writeSize(out, hits==null ? null : hits.getHit());
+        if (hits!=null) {
+            for (Hit hit : hits.getHit()) writeHit(out, hit);
+        }
+        IterationStat stat = iteration.getIterationStat();
+        out.writeBoolean(stat!=null);
+        if (stat!=null) writeStatistics(out, stat.getStatistics());
+    }
+
+    static Iteration readIteration(DataInputStream in) throws IOException {
+        Iteration iteration = new Iteration();
+        iteration.setIterationIterNum(readString(in));
+        iteration.setIterationQueryID(readString(in));
+        iteration.setIterationQueryDef(readString(in));
+        iteration.setIterationQueryLen(readString(in));
+        iteration.setIterationMessage(readString(in));
+        int numHits = readSize(in);
+        if (numHits>=0) {
+            IterationHits hits = new IterationHits();
+            List<Hit> list = hits.getHit();
+            for (int i=0; i<numHits; i++) list.add(readHit(in));
+            iteration.setIterationHits(hits);
+        }
+        if (in.readBoolean()) {
+            IterationStat stat = new IterationStat();
+            stat.setStatistics(readStatistics(in));
+            iteration.setIterationStat(stat);
+        }
+        return iteration;
+    }
+
+    static void writeHit(DataOutputStream out, Hit hit) throws IOException {
+        writeString(out, hit.getHitNum());
+        writeString(out, hit.getHitId());
+        writeString(out, hit.getHitDef());
+        writeString(out, hit.getHitAccession());
+        writeString(out, hit.getHitLen());
+        HitHsps hsps = hit.getHitHsps();
+        writeSize(out, hsps==null ? null : hsps.getHsp());
+        if (hsps!=null) {
+            for (Hsp hsp : hsps.getHsp()) writeHsp(out, hsp);
+        }
+    }
+
+    static Hit readHit(DataInputStream in) throws IOException {
+        Hit hit = new Hit();
+        hit.setHitNum(readString(in));
+        hit.setHitId(readString(in));
+        hit.setHitDef(readString(in));
+        hit.setHitAccession(readString(in));
+        hit.setHitLen(readString(in));
+        int numHsps = readSize(in);
+        if (numHsps>=0) {
+            HitHsps hsps = new HitHsps();
+            List<Hsp> list = hsps.getHsp();
+            for (int i=0; i<numHsps; i++) list.add(readHsp(in));
+            hit.setHitHsps(hsps);
+        }
+        return hit;
+    }
+
+    static void writeHsp(DataOutputStream out, Hsp hsp) throws IOException {
+        writeString(out, hsp.getHspNum());
+        writeString(out, hsp.getHspBitScore());
+        writeString(out, hsp.getHspScore());
+        writeString(out, hsp.getHspEvalue());
+        writeString(out, hsp.getHspQueryFrom());
+        writeString(out, hsp.getHspQueryTo());
+        writeString(out, hsp.getHspHitFrom());
+        writeString(out, hsp.getHspHitTo());
+        writeString(out, hsp.getHspPatternFrom());
+        writeString(out, hsp.getHspPatternTo());
+        writeString(out, hsp.getHspQueryFrame());
+        writeString(out, hsp.getHspHitFrame());
+        writeString(out, hsp.getHspIdentity());
+        writeString(out, hsp.getHspPositive());
+        writeString(out, hsp.getHspGaps());
+        writeString(out, hsp.getHspAlignLen());
+        writeString(out, hsp.getHspDensity());
+        writeString(out, hsp.getHspQseq());
+        writeString(out, hsp.getHspHseq());
+        writeString(out, hsp.getHspMidline());
+    }
+
+    static Hsp readHsp(DataInputStream in) throws IOException {
+        Hsp hsp = new Hsp();
+        hsp.setHspNum(readString(in));
+        hsp.setHspBitScore(readString(in));
+        hsp.setHspScore(readString(in));
+        hsp.setHspEvalue(readString(in));
+        hsp.setHspQueryFrom(readString(in));
+        hsp.setHspQueryTo(readString(in));
+        hsp.setHspHitFrom(readString(in));
+        hsp.setHspHitTo(readString(in));
+        hsp.setHspPatternFrom(readString(in));
+        hsp.setHspPatternTo(readString(in));
+        hsp.setHspQueryFrame(readString(in));
+        hsp.setHspHitFrame(readString(in));
+        hsp.setHspIdentity(readString(in));
+        hsp.setHspPositive(readString(in));
+        hsp.setHspGaps(readString(in));
+        hsp.setHspAlignLen(readString(in));
+        hsp.setHspDensity(readString(in));
+        hsp.setHspQseq(readString(in));
+        hsp.setHspHseq(readString(in));
+        hsp.setHspMidline(readString(in));
+        return hsp;
+    }
+
+    static void writeParameters(DataOutputStream out, Parameters parameters) throws IOException {
+        out.writeBoolean(parameters!=null);
+        if (parameters==null) return;
+        writeString(out, parameters.getParametersMatrix());
+        writeString(out, parameters.getParametersExpect());
+        writeString(out, parameters.getParametersInclude());
+        writeString(out, parameters.getParametersScMatch());
+        writeString(out, parameters.getParametersScMismatch());
+        writeString(out, parameters.getParametersGapOpen());
+        writeString(out, parameters.getParametersGapExtend());
+        writeString(out, parameters.getParametersFilter());
+        writeString(out, parameters.getParametersPattern());
+        writeString(out, parameters.getParametersEntrezQuery());
+    }
+
+    static Parameters readParameters(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        Parameters parameters = new Parameters();
+        parameters.setParametersMatrix(readString(in));
+        parameters.setParametersExpect(readString(in));
+        parameters.setParametersInclude(readString(in));
+        parameters.setParametersScMatch(readString(in));
+        parameters.setParametersScMismatch(readString(in));
+        parameters.setParametersGapOpen(readString(in));
+        parameters.setParametersGapExtend(readString(in));
+        parameters.setParametersFilter(readString(in));
+        parameters.setParametersPattern(readString(in));
+        parameters.setParametersEntrezQuery(readString(in));
+        return parameters;
+    }
+
+    static void writeStatistics(DataOutputStream out, Statistics statistics) throws IOException {
+        out.writeBoolean(statistics!=null);
+        if (statistics==null) return;
+        writeString(out, statistics.getStatisticsDbNum());
+        writeString(out, statistics.getStatisticsDbLen());
+        writeString(out, statistics.getStatisticsHspLen());
+        writeString(out, statistics.getStatisticsEffSpace());
+        writeString(out, statistics.getStatisticsKappa());
+        writeString(out, statistics.getStatisticsLambda());
+        writeString(out, statistics.getStatisticsEntropy());
+    }
+
+    static Statistics readStatistics(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) return null;
+        Statistics statistics = new Statistics();
+        statistics.setStatisticsDbNum(readString(in));
+        statistics.setStatisticsDbLen(readString(in));
+        statistics.setStatisticsHspLen(readString(in));
+        statistics.setStatisticsEffSpace(readString(in));
+        statistics.setStatisticsKappa(readString(in));
+        statistics.setStatisticsLambda(readString(in));
+        statistics.setStatisticsEntropy(readString(in));
+        return statistics;
+    }
+
+    /**
+     * Write a list size as a varint of size+1, or 0 for a null list.
+     */
+    static void writeSize(DataOutputStream out, List<?> list) throws IOException {
+        writeVarInt(out, list==null ? 0 : list.size()+1);
+    }
+
+    /**
+     * Read a list size, returning -1 for a null list.
+     */
+    static int readSize(DataInputStream in) throws IOException {
+        return readVarInt(in)-1;
+    }
+
+    /**
+     * Write a String as a varint of its UTF-8 length+1, or 0 for null, followed by its UTF-8 bytes.
+     */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s==null) {
+            writeVarInt(out, 0);
+        } else {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length+1);
+            out.write(bytes);
+        }
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in)-1;
+        if (length<0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a non-negative int in 7-bit groups, low group first, with the high bit set on all but the last byte.
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F)!=0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift=0; shift<35; shift+=7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F)<<shift;
+            if ((b & 0x80)==0) return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+}
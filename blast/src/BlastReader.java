@@ -1,9 +1,11 @@
 package org.ncgr.blast;
 
-import javax.xml.bind.JAXBException;
+import java.io.IOException;
+
+import javax.xml.stream.XMLStreamException;
 
 /**
- * A simply stub main method to run BlastUtils.readBlastXML.
+ * A simply stub main method to run BlastUtils.streamBlastXML.
  *
  * @author Sam Hokin
  */
@@ -17,8 +19,11 @@ public class BlastReader {
         }
         
         try {
-            BlastUtils.readBlastXML(args[0]);
-        } catch (JAXBException ex) {
+            BlastUtils.streamBlastXML(args[0]);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        } catch (XMLStreamException ex) {
             ex.printStackTrace();
             System.exit(1);
         }
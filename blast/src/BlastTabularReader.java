@@ -0,0 +1,200 @@
+package org.ncgr.blast;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A reader for blastn tabular output (-outfmt 6, or 7 with its # comment lines) in the fixed column order of BlastUtils.TABULAR_COLUMNS,
+ * optionally followed by BlastUtils.TABULAR_SEQUENCE_COLUMNS. Lines are tokenized in place on the byte buffer, without String.split or
+ * per-field Strings; only the query and subject IDs become Strings, and those are reused while they don't change from line to line.
+ *
+ * @author Sam Hokin
+ */
+public class BlastTabularReader implements Closeable {
+
+    InputStream in;
+    boolean withSequences;
+
+    byte[] buf = new byte[65536];
+    int bufPos;
+    int bufLength;
+
+    byte[] line = new byte[1024];
+    int lineLength;
+    int pos;
+
+    String lastQueryID = "";
+    String lastSubjectID = "";
+
+    /**
+     * Construct a reader from a tabular output file name.
+     *
+     * @param filename the name of the tabular blast output file
+     * @param withSequences true if the qseq and sseq columns are present
+     */
+    public BlastTabularReader(String filename, boolean withSequences) throws IOException {
+        this(new FileInputStream(filename), withSequences);
+    }
+
+    /**
+     * Construct a reader from an InputStream of tabular output, which is closed when this reader is closed.
+     *
+     * @param in the InputStream carrying tabular blast output
+     * @param withSequences true if the qseq and sseq columns are present
+     */
+    public BlastTabularReader(InputStream in, boolean withSequences) {
+        this.in = in;
+        this.withSequences = withSequences;
+    }
+
+    /**
+     * Return the next HspRecord, or null at the end of the output.
+     * A line that won't parse from a blastn that failed part way through is reported as blastn's failure, with the parse error as its cause.
+     */
+    public HspRecord next() throws IOException {
+        try {
+            return readRecord();
+        } catch (IOException ex) {
+            if (in instanceof BlastnInputStream) ((BlastnInputStream) in).checkExit(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Parse the next HspRecord, as next() does.
+     */
+    HspRecord readRecord() throws IOException {
+        while (readLine()) {
+            if (lineLength==0 || line[0]=='#') continue;
+            pos = 0;
+            HspRecord record = new HspRecord();
+            record.queryID = nextQueryID();
+            record.subjectID = nextSubjectID();
+            record.pident = nextDouble();
+            record.length = nextInt();
+            record.mismatch = nextInt();
+            record.gapopen = nextInt();
+            record.qstart = nextInt();
+            record.qend = nextInt();
+            record.sstart = nextInt();
+            record.send = nextInt();
+            record.evalue = nextDouble();
+            record.bitscore = nextDouble();
+            if (withSequences) {
+                record.qseq = nextBytes();
+                record.sseq = nextBytes();
+            }
+            return record;
+        }
+        return null;
+    }
+
+    /**
+     * Close the underlying InputStream.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Read the next line into the line buffer, without its line terminator; return false at the end of the output.
+     */
+    boolean readLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (bufPos==bufLength) {
+                bufLength = in.read(buf, 0, buf.length);
+                bufPos = 0;
+                if (bufLength<=0) {
+                    bufLength = 0;
+                    return lineLength>0;
+                }
+            }
+            int start = bufPos;
+            while (bufPos<bufLength && buf[bufPos]!='\n') bufPos++;
+            int n = bufPos-start;
+            if (lineLength+n>line.length) {
+                byte[] bigger = new byte[Math.max(line.length*2, lineLength+n)];
+                System.arraycopy(line, 0, bigger, 0, lineLength);
+                line = bigger;
+            }
+            System.arraycopy(buf, start, line, lineLength, n);
+            lineLength += n;
+            if (bufPos<bufLength) {
+                bufPos++; // skip the newline
+                if (lineLength>0 && line[lineLength-1]=='\r') lineLength--;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Return the end of the field starting at pos.
+     */
+    int fieldEnd() {
+        int end = pos;
+        while (end<lineLength && line[end]!='\t') end++;
+        return end;
+    }
+
+    /**
+     * Return true if the field from pos to end has the same bytes as the given ASCII string.
+     */
+    boolean fieldEquals(int end, String s) {
+        if (end-pos!=s.length()) return false;
+        for (int i=0; i<s.length(); i++) {
+            if (line[pos+i]!=s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    String nextQueryID() throws IOException {
+        int end = fieldEnd();
+        if (!fieldEquals(end, lastQueryID)) lastQueryID = new String(line, pos, end-pos, "US-ASCII");
+        pos = end+1;
+        return lastQueryID;
+    }
+
+    String nextSubjectID() throws IOException {
+        int end = fieldEnd();
+        if (!fieldEquals(end, lastSubjectID)) lastSubjectID = new String(line, pos, end-pos, "US-ASCII");
+        pos = end+1;
+        return lastSubjectID;
+    }
+
+    byte[] nextBytes() {
+        int end = fieldEnd();
+        byte[] bytes = new byte[end-pos];
+        System.arraycopy(line, pos, bytes, 0, bytes.length);
+        pos = end+1;
+        return bytes;
+    }
+
+    int nextInt() throws IOException {
+        int end = fieldEnd();
+        try {
+            int value = DecimalParser.parseInt(line, pos, end);
+            pos = end+1;
+            return value;
+        } catch (NumberFormatException ex) {
+            throw new IOException("Bad integer field in line: "+new String(line, 0, lineLength));
+        }
+    }
+
+    /**
+     * Parse a decimal double such as 100.000, 1.5e-05 or 0.0 directly from the bytes with DecimalParser.
+     */
+    double nextDouble() throws IOException {
+        int end = fieldEnd();
+        try {
+            double value = DecimalParser.parseDouble(line, pos, end);
+            pos = end+1;
+            return value;
+        } catch (NumberFormatException ex) {
+            throw new IOException("Bad numeric field in line: "+new String(line, 0, lineLength));
+        }
+    }
+
+}
@@ -2,17 +2,29 @@ package org.ncgr.blast;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLStreamException;
 
 import org.biojava.nbio.core.sequence.DNASequence;
 import org.biojava.nbio.core.sequence.io.FastaReaderHelper;
@@ -25,38 +37,330 @@ import org.biojava.nbio.core.sequence.io.FastaWriterHelper;
  */
 public class BlastUtils {
 
+    // number of threads each blastn process is expected to use (-num_threads); the async pool is sized to cores/BLASTN_THREADS
+    public static int BLASTN_THREADS = 1;
+
+    // the fixed tabular column set read by BlastTabularReader into HspRecord, and the optional sequence columns that may follow it
+    public static final String TABULAR_COLUMNS = "qseqid sseqid pident length mismatch gapopen qstart qend sstart send evalue bitscore";
+    public static final String TABULAR_SEQUENCE_COLUMNS = "qseq sseq";
+
+    // per-letter probabilities used by scoreDNASequence; other letters don't contribute
+    static final char[] SCORE_LETTERS = { 'A',  'T',  'C',  'G',  'W',  'K',  'R',  'M',  'Y',  'S',  'N'  };
+    static final double[] SCORE_PROBS = { 0.35, 0.35, 0.15, 0.15, 1.00, 0.50, 0.50, 0.50, 0.50, 0.30, 1.00 };
+
+    // -log10(probability) for each byte value, and the 256x256 combined-letter tables indexed by (letter1<<8 | letter2)
+    static final double[] NEG_LOG10_PROBS = new double[256];
+    static final byte[] IUB_MERGE = new byte[256*256];
+    static final byte[] N_MERGE = new byte[256*256];
+    static {
+        for (int j=0; j<SCORE_LETTERS.length; j++) {
+            NEG_LOG10_PROBS[SCORE_LETTERS[j]] = -Math.log10(SCORE_PROBS[j]);
+        }
+        for (char c1=0; c1<256; c1++) {
+            for (char c2=0; c2<256; c2++) {
+                IUB_MERGE[c1<<8 | c2] = (byte) combineDNALetters(c1, c2, true);
+                N_MERGE[c1<<8 | c2] = (byte) combineDNALetters(c1, c2, false);
+            }
+        }
+    }
+
+    // if set, runBlastn and runBlastnAsync look results up here before running blastn, and store them here after
+    public static BlastCache BLAST_CACHE = null;
+
+    // the shared JAXBContext, created on first use, and each thread's Unmarshaller from it
+    static volatile JAXBContext jaxbContext;
+    static final ThreadLocal<Unmarshaller> unmarshallers = new ThreadLocal<Unmarshaller>();
+
+    // the bounded pool on which runBlastnAsync jobs are run, created on first use
+    static ExecutorService blastnExecutor;
+
     /**
      * Run blastn with some fixed parameters, taking two sequences and word size as input.
+     * If BLAST_CACHE is set, a cached result for the same file contents and parameters is returned without running blastn.
      *
      * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
      * @param queryFilename the name of the FASTA file containing the query sequence(s)
      * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
      */
     public static BlastOutput runBlastn(String subjectFilename, String queryFilename, Map<String,String> parameters) throws IOException, InterruptedException, JAXBException {
-        Runtime rt = Runtime.getRuntime();
-        String filename = "/tmp/blastutils_"+System.currentTimeMillis();
-        String command = "blastn -outfmt 5 -subject "+subjectFilename+" -query "+queryFilename;
-        for (String parameter : parameters.keySet()) {
-            parameter = parameter.replace("-",""); // remove dash as a courtesy
-            String value = parameters.get(parameter);
+        BlastCache cache = BLAST_CACHE;
+        String key = null;
+        if (cache!=null) {
+            key = cache.key(subjectFilename, queryFilename, parameters);
+            BlastOutput cached = cache.get(key);
+            if (cached!=null) return cached;
+        }
+        BlastOutput blastOutput;
+        try (BlastnInputStream in = runBlastnStream(subjectFilename, queryFilename, parameters, "5")) {
+            try {
+                blastOutput = getBlastOutput(in);
+            } catch (JAXBException ex) {
+                in.checkExit(ex); // blastn's own failure comes first
+                throw ex;
+            }
+        }
+        if (cache!=null) cache.put(key, blastOutput);
+        return blastOutput;
+    }
+
+    /**
+     * Run blastn as runBlastn does, but return a BlastXmlStreamReader over the output rather than unmarshalling it in full.
+     * The caller is responsible for closing the reader.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @return a BlastXmlStreamReader positioned at the start of the output
+     */
+    public static BlastXmlStreamReader streamBlastn(String subjectFilename, String queryFilename, Map<String,String> parameters) throws IOException, InterruptedException, XMLStreamException {
+        return streamBlastn(subjectFilename, queryFilename, parameters, null);
+    }
+
+    /**
+     * Run blastn as streamBlastn does, with the given HspFilter applied to each HSP as it is parsed, so that rejected HSPs are never built.
+     * The caller is responsible for closing the reader.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @param filter the HspFilter, or null to keep every HSP
+     * @return a BlastXmlStreamReader positioned at the start of the output
+     */
+    public static BlastXmlStreamReader streamBlastn(String subjectFilename, String queryFilename, Map<String,String> parameters, HspFilter filter) throws IOException, InterruptedException, XMLStreamException {
+        BlastnInputStream in = runBlastnStream(subjectFilename, queryFilename, parameters, "5");
+        try {
+            BlastXmlStreamReader reader = new BlastXmlStreamReader(in);
+            reader.setHspFilter(filter);
+            return reader;
+        } catch (XMLStreamException ex) {
+            in.checkExit(ex); // throws with blastn's stderr if it failed
+            throw ex;
+        }
+    }
+
+    /**
+     * Run blastn as streamBlastn does, passing each hit with its Iteration (without hits) to the consumer, so that the output is never held whole.
+     * If BLAST_CACHE is set, cached hits for the same file contents, parameters and filter are replayed without running blastn; otherwise the hits
+     * are written to the cache as they stream past, and the entry is kept once the output has been read to the end.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @param filter the HspFilter, or null to keep every HSP
+     * @param filterKey a string which identifies the filter and its settings in the cache key, since cached hits have already been filtered; required with a filter
+     * @param consumer receives each hit
+     */
+    public static void streamBlastnHits(String subjectFilename, String queryFilename, Map<String,String> parameters, HspFilter filter, String filterKey,
+                                        BlastCache.HitConsumer consumer) throws IOException, InterruptedException, XMLStreamException {
+        if (filter!=null && filterKey==null) throw new IllegalArgumentException("A filterKey is required with a filter, since cached hits have already been filtered");
+        BlastCache cache = BLAST_CACHE;
+        String key = null;
+        if (cache!=null) {
+            // the extra parameters keep hit streams apart from runBlastn's whole outputs, and filtered streams apart from unfiltered ones and each other
+            Map<String,String> keyParameters = new HashMap<String,String>(parameters);
+            keyParameters.put("hit_stream", "");
+            if (filter!=null) keyParameters.put("hsp_filter", filterKey);
+            key = cache.key(subjectFilename, queryFilename, keyParameters);
+            if (cache.getHits(key, consumer)) return;
+        }
+        try (BlastXmlStreamReader reader = streamBlastn(subjectFilename, queryFilename, parameters, filter);
+             BlastCache.HitWriter writer = (cache==null) ? null : cache.putHits(key)) {
+            Hit hit;
+            while ((hit=reader.nextHit())!=null) {
+                if (writer!=null) writer.add(reader.getIteration(), hit);
+                consumer.accept(reader.getIteration(), hit);
+            }
+            if (writer!=null) writer.commit();
+        }
+    }
+
+    /**
+     * Run blastn with tabular output (-outfmt 6) in the fixed TABULAR_COLUMNS order, optionally with the TABULAR_SEQUENCE_COLUMNS,
+     * and return a BlastTabularReader over it as it is produced. The caller is responsible for closing the reader.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @param withSequences true to also request the aligned query and subject sequences
+     * @return a BlastTabularReader supplying HspRecords
+     */
+    public static BlastTabularReader streamBlastnTabular(String subjectFilename, String queryFilename, Map<String,String> parameters, boolean withSequences) throws IOException {
+        String outfmt = "6 "+TABULAR_COLUMNS;
+        if (withSequences) outfmt += " "+TABULAR_SEQUENCE_COLUMNS;
+        return new BlastTabularReader(runBlastnStream(subjectFilename, queryFilename, parameters, outfmt), withSequences);
+    }
+
+    /**
+     * Run blastn as runBlastn does, using BLAST_CACHE if set, but asynchronously on a bounded pool of availableProcessors/BLASTN_THREADS workers.
+     * Cancelling the returned future kills the blastn process if it is running.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @return a CompletableFuture which completes with the BlastOutput, or exceptionally with the blastn or JAXB exception
+     */
+    public static CompletableFuture<BlastOutput> runBlastnAsync(final String subjectFilename, final String queryFilename, final Map<String,String> parameters) {
+        final CompletableFuture<BlastOutput> future = new CompletableFuture<BlastOutput>();
+        final AtomicReference<BlastnInputStream> running = new AtomicReference<BlastnInputStream>();
+        getBlastnExecutor().submit(new Runnable() {
+                public void run() {
+                    if (future.isDone()) return; // cancelled while queued
+                    BlastCache cache = BLAST_CACHE;
+                    String key = null;
+                    try {
+                        if (cache!=null) {
+                            key = cache.key(subjectFilename, queryFilename, parameters);
+                            BlastOutput cached = cache.get(key);
+                            if (cached!=null) {
+                                future.complete(cached);
+                                return;
+                            }
+                        }
+                        BlastOutput blastOutput;
+                        try (BlastnInputStream in = runBlastnStream(subjectFilename, queryFilename, parameters, "5")) {
+                            running.set(in);
+                            if (future.isCancelled()) in.destroy();
+                            try {
+                                blastOutput = getBlastOutput(in);
+                            } catch (JAXBException ex) {
+                                in.checkExit(ex);
+                                throw ex;
+                            }
+                        }
+                        if (cache!=null) cache.put(key, blastOutput);
+                        future.complete(blastOutput);
+                    } catch (Exception ex) {
+                        future.completeExceptionally(ex);
+                    }
+                }
+            });
+        future.whenComplete((blastOutput, ex) -> {
+                BlastnInputStream in = running.get();
+                if (future.isCancelled() && in!=null) in.destroy();
+            });
+        return future;
+    }
+
+    /**
+     * Return the pool used by runBlastnAsync, creating it on first use with availableProcessors/BLASTN_THREADS daemon threads.
+     */
+    public static synchronized ExecutorService getBlastnExecutor() {
+        if (blastnExecutor==null) {
+            int poolSize = Math.max(1, Runtime.getRuntime().availableProcessors()/Math.max(1, BLASTN_THREADS));
+            blastnExecutor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+                    int count = 0;
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "blastn-"+(count++));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return blastnExecutor;
+    }
+
+    /**
+     * Shut down the runBlastnAsync pool, cancelling any running jobs; a new pool is created if runBlastnAsync is called again.
+     */
+    public static synchronized void shutdownBlastnExecutor() {
+        if (blastnExecutor!=null) {
+            blastnExecutor.shutdownNow();
+            blastnExecutor = null;
+        }
+    }
+
+    /**
+     * Start blastn with its output written to stdout in the given format, and return that output as it is produced.
+     * Nothing is written to disk. Closing the returned stream after reading it to the end throws an IOException, carrying blastn's stderr,
+     * if blastn exited with a non-zero value; closing it early kills blastn.
+     *
+     * @param subjectFilename the name of the FASTA file containing the subject sequence(s)
+     * @param queryFilename the name of the FASTA file containing the query sequence(s)
+     * @param parameters a Map of parameter names (without the dash) and values, both represented as Strings, e.g. "word_size":"8"; outfmt, out, subject and query will be ignored.
+     * @param outfmt the blastn -outfmt value, e.g. "5" for XML
+     * @return a BlastnInputStream carrying blastn's stdout
+     */
+    public static BlastnInputStream runBlastnStream(String subjectFilename, String queryFilename, Map<String,String> parameters, String outfmt) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add("blastn");
+        command.add("-outfmt");
+        command.add(outfmt);
+        command.add("-subject");
+        command.add(subjectFilename);
+        command.add("-query");
+        command.add(queryFilename);
+        for (String key : parameters.keySet()) {
+            String parameter = key.replace("-",""); // remove dash as a courtesy
+            String value = parameters.get(key);
             if (!parameter.equals("outfmt") &&
                 !parameter.equals("out") &&
                 !parameter.equals("subject") &&
                 !parameter.equals("query")) {
-                command += " -"+parameter+" "+value;
+                command.add("-"+parameter);
+                if (value!=null && value.length()>0) command.add(value);
+            }
+        }
+        return new BlastnInputStream(command);
+    }
+
+    /**
+     * Return the JAXBContext for BlastOutput, creating it on first use. A JAXBContext is thread-safe and expensive to build, so one is shared.
+     */
+    public static JAXBContext getJAXBContext() throws JAXBException {
+        JAXBContext context = jaxbContext;
+        if (context==null) {
+            synchronized (BlastUtils.class) {
+                context = jaxbContext;
+                if (context==null) {
+                    context = JAXBContext.newInstance(BlastOutput.class);
+                    jaxbContext = context;
+                }
             }
-            // indicate the query range that we're searching in the file name
-            if (parameter.equals("query_loc")) filename += "_"+value;
         }
-        filename += ".xml";
-        command += " -out "+filename;
-        Process pr = rt.exec(command);
-        pr.waitFor();
-        if (pr.exitValue()!=0) {
-            System.err.println("Aborting: blastn returned exit value "+pr.exitValue());
-            System.exit(pr.exitValue());
+        return context;
+    }
+
+    /**
+     * Return this thread's Unmarshaller for BlastOutput, creating it on first use. Unmarshallers aren't thread-safe, so each thread reuses its own.
+     */
+    static Unmarshaller getUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = unmarshallers.get();
+        if (unmarshaller==null) {
+            unmarshaller = getJAXBContext().createUnmarshaller();
+            unmarshallers.set(unmarshaller);
+        }
+        return unmarshaller;
+    }
+
+    /**
+     * Parse every .xml file in a directory into a BlastOutput on a pool of availableProcessors threads.
+     *
+     * @param dir the directory containing blast XML files
+     * @return a map of file name to BlastOutput, in file name order
+     */
+    public static LinkedHashMap<String,BlastOutput> getBlastOutputs(File dir) throws IOException, InterruptedException, JAXBException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".xml"));
+        if (files==null) throw new IOException("Could not list directory "+dir);
+        Arrays.sort(files);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors())));
+        try {
+            List<Future<BlastOutput>> futures = new ArrayList<Future<BlastOutput>>();
+            for (File file : files) {
+                futures.add(pool.submit(() -> (BlastOutput) getUnmarshaller().unmarshal(file)));
+            }
+            LinkedHashMap<String,BlastOutput> blastOutputs = new LinkedHashMap<String,BlastOutput>();
+            for (int i=0; i<files.length; i++) {
+                try {
+                    blastOutputs.put(files[i].getName(), futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof JAXBException) throw (JAXBException) ex.getCause();
+                    throw new IOException("Error parsing "+files[i], ex.getCause());
+                }
+            }
+            return blastOutputs;
+        } finally {
+            pool.shutdownNow();
         }
-        return getBlastOutput(filename);
     }
 
     /**
@@ -66,10 +370,17 @@ public class BlastUtils {
      * @return a BlastOutput instance
      */
     public static BlastOutput getBlastOutput(String filename) throws JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance(BlastOutput.class);
-        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-        BlastOutput blastOutput = (BlastOutput) jaxbUnmarshaller.unmarshal(new File(filename));
-        return blastOutput;
+        return (BlastOutput) getUnmarshaller().unmarshal(new File(filename));
+    }
+
+    /**
+     * Return a BlastOutput from an InputStream of XML, which is left open.
+     *
+     * @param in the InputStream carrying blast XML output
+     * @return a BlastOutput instance
+     */
+    public static BlastOutput getBlastOutput(InputStream in) throws JAXBException {
+        return (BlastOutput) getUnmarshaller().unmarshal(in);
     }
 
     /**
@@ -79,33 +390,39 @@ public class BlastUtils {
      * @return a BlastOutput instance
      */
     public static BlastOutput getBlastOutput(URL url) throws JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance(BlastOutput.class);
-        Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-        BlastOutput blastOutput = (BlastOutput) jaxbUnmarshaller.unmarshal(url);
-        return blastOutput;
+        return (BlastOutput) getUnmarshaller().unmarshal(url);
     }
     
     /**
      * Return a double score for an input DNA sequence equal to the log of the inverse of the probability of each letter being produced randomly.
-     * The probabilities for each are set at the top. Longer sequences naturally get much larger scores.
+     * The probabilities for each are set in SCORE_LETTERS and SCORE_PROBS. Longer sequences naturally get much larger scores.
      *
      * @param  sequence a string sequence of DNA letters
      * @return an integer score
      */
     public static double scoreDNASequence(String sequence) {
-        char[] letters = { 'A',  'T',  'C',  'G',  'W',  'K',  'R',  'M',  'Y',  'S',  'N'  };
-        double[] probs = { 0.35, 0.35, 0.15, 0.15, 1.00, 0.50, 0.50, 0.50, 0.50, 0.30, 1.00 };
-        char[] chars = sequence.toCharArray();
-        double totalProb = 1.00;
-        for (int i=0; i<chars.length; i++) {
-            for (int j=0; j<letters.length; j++) {
-                if (chars[i]==letters[j]) {
-                    totalProb *= probs[j];
-                    j = chars.length;
-                }
-            }
+        double score = 0.0;
+        for (int i=0; i<sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (c<256) score += NEG_LOG10_PROBS[c];
+        }
+        return score;
+    }
+
+    /**
+     * Return the scoreDNASequence score of the first length bytes of an ASCII DNA sequence, summing per-letter -log10 probabilities from a lookup table
+     * so that long sequences don't underflow.
+     *
+     * @param sequence ASCII DNA letters
+     * @param length the number of letters to score
+     * @return the score
+     */
+    public static double scoreDNASequence(byte[] sequence, int length) {
+        double score = 0.0;
+        for (int i=0; i<length; i++) {
+            score += NEG_LOG10_PROBS[sequence[i] & 0xFF];
         }
-        return -Math.log10(totalProb);
+        return score;
     }
 
     /**
@@ -121,37 +438,58 @@ public class BlastUtils {
         if (seq1.length()!=seq2.length()) {
             return null;
         }
-        char[] seq1Chars = seq1.toCharArray();
-        char[] seq2Chars = seq2.toCharArray();
-        String combined = "";
-        for (int i=0; i<seq1Chars.length; i++) {
-            if ( seq1Chars[i]==seq2Chars[i] ) {
-                combined += seq1Chars[i];  // identical
-            } else if ( useIUB && (seq1Chars[i]=='A'||seq1Chars[i]=='G') && (seq2Chars[i]=='A'||seq2Chars[i]=='G') ) {
-                combined += 'R';           // puRine
-            } else if ( useIUB && (seq1Chars[i]=='C'||seq1Chars[i]=='T') && (seq2Chars[i]=='C'||seq2Chars[i]=='T') ) {
-                combined += 'Y';           // pYrimidines
-            } else if ( useIUB && (seq1Chars[i]=='G'||seq1Chars[i]=='T') && (seq2Chars[i]=='G'||seq2Chars[i]=='T') ) {
-                combined += 'K';           // Ketones
-            } else if ( useIUB && (seq1Chars[i]=='A'||seq1Chars[i]=='C') && (seq2Chars[i]=='A'||seq2Chars[i]=='C') ) {
-                combined += 'M';           // aMino groups
-            } else if ( useIUB && (seq1Chars[i]=='C'||seq1Chars[i]=='G') && (seq2Chars[i]=='C'||seq2Chars[i]=='G') ) {
-                combined += 'S';           // Strong interaction
-            } else if ( useIUB && (seq1Chars[i]=='A'||seq1Chars[i]=='T') && (seq2Chars[i]=='A'||seq2Chars[i]=='T') ) {
-                combined += 'W';           // Weak interaction
-            } else if ( useIUB && (seq1Chars[i]!='A') && (seq2Chars[i]!='A') ) {
-                combined += 'B';
-            } else if ( useIUB && (seq1Chars[i]!='C') && (seq2Chars[i]!='C') ) {
-                combined += 'D';
-            } else if ( useIUB && (seq1Chars[i]!='G') && (seq2Chars[i]!='G') ) {
-                combined += 'H';
-            } else if ( useIUB && (seq1Chars[i]!='T') && (seq2Chars[i]!='T') ) {
-                combined += 'V';
-            } else {
-                combined += 'N';
-            }
+        byte[] bytes1 = seq1.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] bytes2 = seq2.getBytes(StandardCharsets.ISO_8859_1);
+        combineDNASequences(bytes1, bytes2, bytes1.length, useIUB, bytes1); // safe in place since each position is read before it is written
+        return new String(bytes1, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Combine the first length bytes of two ASCII DNA sequences into the caller-supplied output buffer, which may be one of the inputs,
+     * using the precomputed IUB/IUPAC merge table: one lookup per position and no allocation.
+     *
+     * @param seq1 ASCII DNA letters
+     * @param seq2 ASCII DNA letters
+     * @param length the number of letters to combine
+     * @param useIUB boolean indicating whether to use IUB/IUPAC codes for mismatches; only N is used if false
+     * @param out the buffer to receive the combined sequence, at least length long
+     */
+    public static void combineDNASequences(byte[] seq1, byte[] seq2, int length, boolean useIUB, byte[] out) {
+        byte[] table = useIUB ? IUB_MERGE : N_MERGE;
+        for (int i=0; i<length; i++) {
+            out[i] = table[(seq1[i] & 0xFF)<<8 | (seq2[i] & 0xFF)];
+        }
+    }
+
+    /**
+     * Return the combined letter for a pair of DNA letters, as used to build IUB_MERGE and N_MERGE.
+     */
+    static char combineDNALetters(char c1, char c2, boolean useIUB) {
+        if ( c1==c2 ) {
+            return c1;  // identical
+        } else if ( useIUB && (c1=='A'||c1=='G') && (c2=='A'||c2=='G') ) {
+            return 'R'; // puRine
+        } else if ( useIUB && (c1=='C'||c1=='T') && (c2=='C'||c2=='T') ) {
+            return 'Y'; // pYrimidines
+        } else if ( useIUB && (c1=='G'||c1=='T') && (c2=='G'||c2=='T') ) {
+            return 'K'; // Ketones
+        } else if ( useIUB && (c1=='A'||c1=='C') && (c2=='A'||c2=='C') ) {
+            return 'M'; // aMino groups
+        } else if ( useIUB && (c1=='C'||c1=='G') && (c2=='C'||c2=='G') ) {
+            return 'S'; // Strong interaction
+        } else if ( useIUB && (c1=='A'||c1=='T') && (c2=='A'||c2=='T') ) {
+            return 'W'; // Weak interaction
+        } else if ( useIUB && (c1!='A') && (c2!='A') ) {
+            return 'B';
+        } else if ( useIUB && (c1!='C') && (c2!='C') ) {
+            return 'D';
+        } else if ( useIUB && (c1!='G') && (c2!='G') ) {
+            return 'H';
+        } else if ( useIUB && (c1!='T') && (c2!='T') ) {
+            return 'V';
+        } else {
+            return 'N';
         }
-        return combined;
     }
 
     /**
@@ -162,10 +500,7 @@ public class BlastUtils {
     public static void readBlastXML(String filepath) throws JAXBException {
 
             File file = new File(filepath);
-            JAXBContext jaxbContext = JAXBContext.newInstance(BlastOutput.class);
-            Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-            
-            BlastOutput blastOutput = (BlastOutput) jaxbUnmarshaller.unmarshal(file);
+            BlastOutput blastOutput = (BlastOutput) getUnmarshaller().unmarshal(file);
             System.out.println("======== BlastOutput ========-");
             System.out.println("db="+blastOutput.getBlastOutputDb());
             System.out.println("program="+blastOutput.getBlastOutputProgram());
@@ -301,4 +636,116 @@ public class BlastUtils {
     }
 
     
+    /**
+     * Read a Blast-generated XML file (-outfmt 5) with a BlastXmlStreamReader and spit out the contents one Hit at a time,
+     * so that arbitrarily large files can be dumped. Each Iteration's message and statistics, which BLAST writes after its hits,
+     * are shown after them, and the overall statistics at the end.
+     *
+     * @param filepath the full path of the blast XML file
+     */
+    public static void streamBlastXML(String filepath) throws IOException, XMLStreamException {
+        try (BlastXmlStreamReader reader = new BlastXmlStreamReader(filepath)) {
+            boolean headerPrinted = false;
+            int event;
+            while ((event=reader.nextEvent())!=BlastXmlStreamReader.END) {
+                if (!headerPrinted) {
+                    headerPrinted = true;
+                    printBlastOutputHeader(reader.getBlastOutput());
+                }
+                Iteration iteration = reader.getIteration();
+                if (event==BlastXmlStreamReader.ITERATION) {
+                    System.out.println("num="+iteration.getIterationIterNum());
+                    System.out.println("queryDef="+iteration.getIterationQueryDef());
+                    System.out.println("queryID="+iteration.getIterationQueryID());
+                    System.out.println("queryLen="+iteration.getIterationQueryLen());
+                } else if (event==BlastXmlStreamReader.ITERATION_END) {
+                    System.out.println("message="+iteration.getIterationMessage());
+                    System.out.println("======== Stats ========");
+                    IterationStat stat = iteration.getIterationStat();
+                    printStatistics(stat==null ? null : stat.getStatistics());
+                } else {
+                    Hit hit = reader.getHit();
+                    System.out.println("======== HIT "+hit.getHitNum()+" ========");
+                    System.out.println("accession="+hit.getHitAccession());
+                    System.out.println("def="+hit.getHitDef());
+                    System.out.println("id="+hit.getHitId());
+                    System.out.println("len="+hit.getHitLen());
+                    for (Hsp hsp : hit.getHitHsps().getHsp()) {
+                        System.out.println("-------- HSP "+hsp.getHspNum()+" --------");
+                        System.out.println("alignLen="+hsp.getHspAlignLen());
+                        System.out.println("bitScore="+hsp.getHspBitScore());
+                        System.out.println("density="+hsp.getHspDensity());
+                        System.out.println("evalue="+hsp.getHspEvalue());
+                        System.out.println("gaps="+hsp.getHspGaps());
+                        System.out.println("hitFrame="+hsp.getHspHitFrame());
+                        System.out.println("hseq\t"+hsp.getHspHseq()+"\t"+hsp.getHspHitFrom()+"-"+hsp.getHspHitTo());
+                        System.out.println("midline\t"+hsp.getHspMidline());
+                        System.out.println("qseq\t"+hsp.getHspQseq()+"\t"+hsp.getHspQueryFrom()+"-"+hsp.getHspQueryTo());
+                        System.out.println("identity="+hsp.getHspIdentity());
+                        System.out.println("patternFrom="+hsp.getHspPatternFrom());
+                        System.out.println("patternTo="+hsp.getHspPatternTo());
+                        System.out.println("positive="+hsp.getHspPositive());
+                        System.out.println("queryFrame="+hsp.getHspQueryFrame());
+                        System.out.println("score="+hsp.getHspScore());
+                    }
+                }
+            }
+            // a file with no iterations still has its header
+            if (!headerPrinted) printBlastOutputHeader(reader.getBlastOutput());
+            BlastOutputMbstat mbstat = reader.getBlastOutput().getBlastOutputMbstat();
+            System.out.println("======== Statistics ========");
+            printStatistics(mbstat==null ? null : mbstat.getStatistics());
+        }
+    }
+
+    /**
+     * Print the BlastOutput fields and parameters that precede the iterations.
+     */
+    static void printBlastOutputHeader(BlastOutput blastOutput) {
+        System.out.println("======== BlastOutput ========-");
+        System.out.println("db="+blastOutput.getBlastOutputDb());
+        System.out.println("program="+blastOutput.getBlastOutputProgram());
+        System.out.println("queryDef="+blastOutput.getBlastOutputQueryDef());
+        System.out.println("queryID="+blastOutput.getBlastOutputQueryID());
+        System.out.println("queryLen="+blastOutput.getBlastOutputQueryLen());
+        System.out.println("querySeq="+blastOutput.getBlastOutputQuerySeq());
+        System.out.println("outputReference="+blastOutput.getBlastOutputReference());
+        System.out.println("outputVersion="+blastOutput.getBlastOutputVersion());
+        BlastOutputParam param = blastOutput.getBlastOutputParam();
+        System.out.println("======== Parameters ========");
+        if (param==null || param.getParameters()==null) {
+            System.out.println("no parameters found.");
+        } else {
+            Parameters params = param.getParameters();
+            System.out.println("entrezQuery="+params.getParametersEntrezQuery());
+            System.out.println("expect="+params.getParametersExpect());
+            System.out.println("filter="+params.getParametersFilter());
+            System.out.println("gapExtend="+params.getParametersGapExtend());
+            System.out.println("gapOpen="+params.getParametersGapOpen());
+            System.out.println("include="+params.getParametersInclude());
+            System.out.println("matrix="+params.getParametersMatrix());
+            System.out.println("pattern="+params.getParametersPattern());
+            System.out.println("scMatch="+params.getParametersScMatch());
+            System.out.println("scMismatch="+params.getParametersScMismatch());
+        }
+        System.out.println("======== Iterations ========");
+    }
+
+    /**
+     * Print a Statistics element, as readBlastXML does.
+     */
+    static void printStatistics(Statistics stats) {
+        if (stats==null) {
+            System.out.println("no statistics found.");
+        } else {
+            System.out.println("dblen="+stats.getStatisticsDbLen());
+            System.out.println("dbnum="+stats.getStatisticsDbNum());
+            System.out.println("effspace="+stats.getStatisticsEffSpace());
+            System.out.println("entropy="+stats.getStatisticsEntropy());
+            System.out.println("hsplen="+stats.getStatisticsHspLen());
+            System.out.println("kappa="+stats.getStatisticsKappa());
+            System.out.println("lambda="+stats.getStatisticsLambda());
+        }
+    }
+
 }
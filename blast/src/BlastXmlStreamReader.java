@@ -0,0 +1,415 @@
+package org.ncgr.blast;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A pull-style StAX reader for Blast-generated XML (-outfmt 5) which returns one Hit, with its Hsps, at a time,
+ * so that memory is bounded by the largest single Hit rather than the size of the file.
+ * <p>
+ * The BlastOutput header (program, version, query, parameters) is available from getBlastOutput() once the first Iteration has started,
+ * and its statistics (BlastOutput_mbstat) at the end; its iterations are never populated. The current Iteration is available from getIteration(),
+ * with its message and statistics once it has ended; its hits are never populated either.
+ * <p>
+ * nextHit() returns only the hits; nextEvent() also reports the start and end of each Iteration, so that iterations without hits are seen.
+ * <p>
+ * Each Hsp is first read into a reused RawHsp, so an HspFilter set with setHspFilter() can reject it before any String or Hsp is created.
+ *
+ * @author Sam Hokin
+ */
+public class BlastXmlStreamReader implements Closeable {
+
+    static XMLInputFactory factory;
+    static {
+        factory = XMLInputFactory.newInstance();
+        // BLAST XML declares an external DTD which we neither need nor want to fetch
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    /** nextEvent(): the end of the file. */
+    public static final int END = 0;
+    /** nextEvent(): an Iteration has started and its query fields have been read. */
+    public static final int ITERATION = 1;
+    /** nextEvent(): a Hit has been read. */
+    public static final int HIT = 2;
+    /** nextEvent(): an Iteration has ended and its statistics and message have been read. */
+    public static final int ITERATION_END = 3;
+
+    InputStream in;
+    XMLStreamReader reader;
+
+    BlastOutput blastOutput = new BlastOutput();
+    Iteration iteration;
+    Hit hit;
+    boolean inIteration = false;        // between the Iteration start and end elements
+    boolean iterationReported = false;  // ITERATION has been returned for the current Iteration
+    boolean endPending = false;         // ITERATION_END is owed after an ITERATION reported at the Iteration end element
+
+    HspFilter filter;
+    RawHsp raw = new RawHsp(); // reused for every Hsp
+
+    /**
+     * Construct a reader from a Blast XML file name.
+     *
+     * @param filename the name of the XML file containing blast output
+     */
+    public BlastXmlStreamReader(String filename) throws IOException, XMLStreamException {
+        this(new FileInputStream(filename));
+    }
+
+    /**
+     * Construct a reader from a Blast XML file given by a URL.
+     *
+     * @param url the URL of the XML file
+     */
+    public BlastXmlStreamReader(URL url) throws IOException, XMLStreamException {
+        this(url.openStream());
+    }
+
+    /**
+     * Construct a reader from an InputStream of Blast XML, which is closed when this reader is closed.
+     *
+     * @param in the InputStream carrying blast output
+     */
+    public BlastXmlStreamReader(InputStream in) throws XMLStreamException {
+        this.in = in;
+        this.reader = factory.createXMLStreamReader(in);
+    }
+
+    /**
+     * Set a filter applied to each Hsp before it is built: rejected HSPs are dropped, as are hits left with none.
+     *
+     * @param filter the HspFilter, or null to keep every HSP
+     */
+    public void setHspFilter(HspFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Return the BlastOutput header read so far, without iterations.
+     */
+    public BlastOutput getBlastOutput() {
+        return blastOutput;
+    }
+
+    /**
+     * Return the current Iteration, without hits; null before the first Iteration.
+     */
+    public Iteration getIteration() {
+        return iteration;
+    }
+
+    /**
+     * Return the Hit read by the last nextEvent() that returned HIT.
+     */
+    public Hit getHit() {
+        return hit;
+    }
+
+    /**
+     * Return the next Hit, with its Hsps, or null if there are no more hits in the file.
+     */
+    public Hit nextHit() throws IOException, XMLStreamException {
+        int event;
+        while ((event=nextEvent())!=END) {
+            if (event==HIT) return hit;
+        }
+        return null;
+    }
+
+    /**
+     * Advance to the next Iteration start, Hit or Iteration end.
+     *
+     * @return ITERATION, HIT, ITERATION_END or END
+     * @throws IOException carrying blastn's stderr, with the parse error as its cause, if reading a BlastnInputStream from a failed blastn
+     */
+    public int nextEvent() throws IOException, XMLStreamException {
+        try {
+            return readEvent();
+        } catch (XMLStreamException ex) {
+            if (in instanceof BlastnInputStream) ((BlastnInputStream) in).checkExit(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Advance to the next event, as nextEvent() does.
+     */
+    int readEvent() throws XMLStreamException {
+        if (endPending) {
+            endPending = false;
+            return ITERATION_END;
+        }
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event==XMLStreamConstants.END_ELEMENT) {
+                if (inIteration && reader.getLocalName().equals("Iteration")) {
+                    inIteration = false;
+                    if (!iterationReported) {
+                        iterationReported = true;
+                        endPending = true;
+                        return ITERATION;
+                    }
+                    return ITERATION_END;
+                }
+                continue;
+            }
+            if (event!=XMLStreamConstants.START_ELEMENT) continue;
+            String name = reader.getLocalName();
+            if (name.equals("Iteration")) {
+                iteration = new Iteration();
+                inIteration = true;
+                iterationReported = false;
+            } else if (inIteration && !iterationReported
+                       && (name.equals("Iteration_hits") || name.equals("Iteration_stat") || name.equals("Iteration_message"))) {
+                // the query fields come first, so the Iteration header is complete
+                iterationReported = true;
+                if (name.equals("Iteration_message")) setIterationField(name);
+                return ITERATION;
+            } else if (name.equals("Hit")) {
+                hit = readHit();
+                if (filter!=null && hit.getHitHsps().getHsp().isEmpty()) continue; // every HSP was rejected
+                return HIT;
+            } else if (name.equals("Parameters")) {
+                BlastOutputParam param = new BlastOutputParam();
+                param.setParameters(readParameters());
+                blastOutput.setBlastOutputParam(param);
+            } else if (name.equals("Statistics")) {
+                Statistics stats = readStatistics();
+                if (inIteration) {
+                    IterationStat stat = new IterationStat();
+                    stat.setStatistics(stats);
+                    iteration.setIterationStat(stat);
+                } else {
+                    BlastOutputMbstat mbstat = new BlastOutputMbstat();
+                    mbstat.setStatistics(stats);
+                    blastOutput.setBlastOutputMbstat(mbstat);
+                }
+            } else if (name.startsWith("Iteration_") && iteration!=null) {
+                setIterationField(name);
+            } else if (name.startsWith("BlastOutput_")) {
+                setBlastOutputField(name);
+            }
+        }
+        return END;
+    }
+
+    /**
+     * Close the underlying XMLStreamReader and InputStream.
+     */
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a Hit and its Hsps; the reader is positioned at the Hit start element.
+     */
+    Hit readHit() throws XMLStreamException {
+        Hit hit = new Hit();
+        HitHsps hsps = new HitHsps();
+        hit.setHitHsps(hsps);
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event==XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Hit")) {
+                return hit;
+            } else if (event==XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if (name.equals("Hsp")) {
+                    readHsp();
+                    if (filter==null || filter.accept(raw)) hsps.getHsp().add(raw.toHsp());
+                } else if (name.equals("Hit_num")) {
+                    hit.setHitNum(reader.getElementText());
+                } else if (name.equals("Hit_id")) {
+                    hit.setHitId(reader.getElementText());
+                } else if (name.equals("Hit_def")) {
+                    hit.setHitDef(reader.getElementText());
+                } else if (name.equals("Hit_accession")) {
+                    hit.setHitAccession(reader.getElementText());
+                } else if (name.equals("Hit_len")) {
+                    hit.setHitLen(reader.getElementText());
+                }
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document inside Hit");
+    }
+
+    /**
+     * Read an Hsp into raw, without creating any Strings; the reader is positioned at the Hsp start element.
+     */
+    void readHsp() throws XMLStreamException {
+        raw.clear();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event==XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Hsp")) {
+                return;
+            } else if (event==XMLStreamConstants.START_ELEMENT) {
+                int field;
+                switch (reader.getLocalName()) {
+                case "Hsp_num":          field = RawHsp.NUM; break;
+                case "Hsp_bit-score":    field = RawHsp.BIT_SCORE; break;
+                case "Hsp_score":        field = RawHsp.SCORE; break;
+                case "Hsp_evalue":       field = RawHsp.EVALUE; break;
+                case "Hsp_query-from":   field = RawHsp.QUERY_FROM; break;
+                case "Hsp_query-to":     field = RawHsp.QUERY_TO; break;
+                case "Hsp_hit-from":     field = RawHsp.HIT_FROM; break;
+                case "Hsp_hit-to":       field = RawHsp.HIT_TO; break;
+                case "Hsp_pattern-from": field = RawHsp.PATTERN_FROM; break;
+                case "Hsp_pattern-to":   field = RawHsp.PATTERN_TO; break;
+                case "Hsp_query-frame":  field = RawHsp.QUERY_FRAME; break;
+                case "Hsp_hit-frame":    field = RawHsp.HIT_FRAME; break;
+                case "Hsp_identity":     field = RawHsp.IDENTITY; break;
+                case "Hsp_positive":     field = RawHsp.POSITIVE; break;
+                case "Hsp_gaps":         field = RawHsp.GAPS; break;
+                case "Hsp_align-len":    field = RawHsp.ALIGN_LEN; break;
+                case "Hsp_density":      field = RawHsp.DENSITY; break;
+                case "Hsp_qseq":         field = RawHsp.QSEQ; break;
+                case "Hsp_hseq":         field = RawHsp.HSEQ; break;
+                case "Hsp_midline":      field = RawHsp.MIDLINE; break;
+                default:                 field = -1; break;
+                }
+                if (field<0) {
+                    reader.getElementText();
+                } else {
+                    readRawText(field);
+                }
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document inside Hsp");
+    }
+
+    /**
+     * Append the text of a simple element to the given raw field, as getElementText would return it; the reader is positioned at its start element.
+     */
+    void readRawText(int field) throws XMLStreamException {
+        raw.startField(field);
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                raw.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                break;
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                // getTextCharacters is not allowed on entity references, which reach here undeclared since DTDs are not read
+                String text = reader.getText();
+                raw.append(text.toCharArray(), 0, text.length());
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                raw.endField(field);
+                return;
+            case XMLStreamConstants.START_ELEMENT:
+                throw new XMLStreamException("Unexpected element inside Hsp field", reader.getLocation());
+            default:
+                break;
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document inside Hsp field");
+    }
+
+    /**
+     * Read the Parameters element; the reader is positioned at its start element.
+     */
+    Parameters readParameters() throws XMLStreamException {
+        Parameters params = new Parameters();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event==XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Parameters")) {
+                return params;
+            } else if (event==XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                String value = reader.getElementText();
+                switch (name) {
+                case "Parameters_matrix":       params.setParametersMatrix(value); break;
+                case "Parameters_expect":       params.setParametersExpect(value); break;
+                case "Parameters_include":      params.setParametersInclude(value); break;
+                case "Parameters_sc-match":     params.setParametersScMatch(value); break;
+                case "Parameters_sc-mismatch":  params.setParametersScMismatch(value); break;
+                case "Parameters_gap-open":     params.setParametersGapOpen(value); break;
+                case "Parameters_gap-extend":   params.setParametersGapExtend(value); break;
+                case "Parameters_filter":       params.setParametersFilter(value); break;
+                case "Parameters_pattern":      params.setParametersPattern(value); break;
+                case "Parameters_entrez-query": params.setParametersEntrezQuery(value); break;
+                default: break;
+                }
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document inside Parameters");
+    }
+
+    /**
+     * Read the Statistics element; the reader is positioned at its start element.
+     */
+    Statistics readStatistics() throws XMLStreamException {
+        Statistics stats = new Statistics();
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event==XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("Statistics")) {
+                return stats;
+            } else if (event==XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                String value = reader.getElementText();
+                switch (name) {
+                case "Statistics_db-num":    stats.setStatisticsDbNum(value); break;
+                case "Statistics_db-len":    stats.setStatisticsDbLen(value); break;
+                case "Statistics_hsp-len":   stats.setStatisticsHspLen(value); break;
+                case "Statistics_eff-space": stats.setStatisticsEffSpace(value); break;
+                case "Statistics_kappa":     stats.setStatisticsKappa(value); break;
+                case "Statistics_lambda":    stats.setStatisticsLambda(value); break;
+                case "Statistics_entropy":   stats.setStatisticsEntropy(value); break;
+                default: break;
+                }
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document inside Statistics");
+    }
+
+    /**
+     * Set a simple Iteration field; the reader is positioned at its start element.
+     * Iteration_hits, Iteration_stat and other container elements are left for the main loop.
+     */
+    void setIterationField(String name) throws XMLStreamException {
+        switch (name) {
+        case "Iteration_iter-num":  iteration.setIterationIterNum(reader.getElementText()); break;
+        case "Iteration_query-ID":  iteration.setIterationQueryID(reader.getElementText()); break;
+        case "Iteration_query-def": iteration.setIterationQueryDef(reader.getElementText()); break;
+        case "Iteration_query-len": iteration.setIterationQueryLen(reader.getElementText()); break;
+        case "Iteration_message":   iteration.setIterationMessage(reader.getElementText()); break;
+        default: break;
+        }
+    }
+
+    /**
+     * Set a simple BlastOutput header field; the reader is positioned at its start element.
+     */
+    void setBlastOutputField(String name) throws XMLStreamException {
+        switch (name) {
+        case "BlastOutput_program":   blastOutput.setBlastOutputProgram(reader.getElementText()); break;
+        case "BlastOutput_version":   blastOutput.setBlastOutputVersion(reader.getElementText()); break;
+        case "BlastOutput_reference": blastOutput.setBlastOutputReference(reader.getElementText()); break;
+        case "BlastOutput_db":        blastOutput.setBlastOutputDb(reader.getElementText()); break;
+        case "BlastOutput_query-ID":  blastOutput.setBlastOutputQueryID(reader.getElementText()); break;
+        case "BlastOutput_query-def": blastOutput.setBlastOutputQueryDef(reader.getElementText()); break;
+        case "BlastOutput_query-len": blastOutput.setBlastOutputQueryLen(reader.getElementText()); break;
+        case "BlastOutput_query-seq": blastOutput.setBlastOutputQuerySeq(reader.getElementText()); break;
+        default: break;
+        }
+    }
+
+}
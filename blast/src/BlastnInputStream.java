@@ -0,0 +1,152 @@
+package org.ncgr.blast;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The standard output of a running blastn process, read while blastn is still writing it.
+ * Standard error is drained on a separate thread so blastn never blocks on it.
+ * Closing the stream after reading to the end waits for blastn to exit and throws an IOException carrying its stderr if the exit value is non-zero;
+ * closing it before the end kills blastn. A parser that fails on the output should call checkExit(), so that a blastn failure is reported
+ * ahead of the parse error it caused.
+ *
+ * @author Sam Hokin
+ */
+public class BlastnInputStream extends FilterInputStream {
+
+    // parsers stop at the closing tag, so up to this many trailing bytes are read at close to reach the end of the output
+    static final int MAX_TRAILING = 65536;
+
+    Process process;
+    Thread stderrThread;
+    ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    boolean eof = false;
+    boolean closed = false;
+    IOException failure; // blastn's non-zero exit, once known
+
+    /**
+     * Start the given blastn command line; its output format should write to stdout (no -out).
+     *
+     * @param command the blastn command and its arguments
+     */
+    public BlastnInputStream(List<String> command) throws IOException {
+        this(new ProcessBuilder(command).start());
+    }
+
+    BlastnInputStream(Process process) {
+        super(process.getInputStream());
+        this.process = process;
+        final InputStream err = process.getErrorStream();
+        stderrThread = new Thread(new Runnable() {
+                public void run() {
+                    byte[] buffer = new byte[4096];
+                    try {
+                        int n;
+                        while ((n=err.read(buffer))!=-1) {
+                            synchronized (stderr) {
+                                stderr.write(buffer, 0, n);
+                            }
+                        }
+                    } catch (IOException ex) {
+                        // process was destroyed
+                    }
+                }
+            }, "blastn-stderr");
+        stderrThread.setDaemon(true);
+        stderrThread.start();
+    }
+
+    public int read() throws IOException {
+        int b = super.read();
+        if (b==-1) eof = true;
+        return b;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n==-1) eof = true;
+        return n;
+    }
+
+    /**
+     * Read and discard up to MAX_TRAILING bytes, setting eof if the end of the output is reached.
+     */
+    void skipTrailing() throws IOException {
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        while (!eof && total<MAX_TRAILING) {
+            int n = read(buffer, 0, buffer.length);
+            if (n>0) total += n;
+        }
+    }
+
+    /**
+     * Return what blastn has written to stderr so far.
+     */
+    public String getStderr() {
+        synchronized (stderr) {
+            return stderr.toString();
+        }
+    }
+
+    /**
+     * Kill blastn without checking its exit value; used for cancellation.
+     */
+    public void destroy() {
+        process.destroy();
+    }
+
+    /**
+     * Close stdout. If it was read to the end (allowing for a little trailing whitespace), wait for blastn to exit and throw an IOException if its exit value is non-zero;
+     * otherwise kill blastn, since nobody wants the rest of its output.
+     */
+    public void close() throws IOException {
+        if (closed) return;
+        finish();
+        if (failure!=null) throw failure;
+    }
+
+    /**
+     * Called by a parser that failed on this output: closes the stream as close() does, and if blastn failed, which is the usual reason
+     * for output that ends early, throws its stderr as the primary exception with the parse error as its cause.
+     * Otherwise returns, and the caller rethrows its parse error. The parser may already have closed the stream at the end of the output.
+     *
+     * @param parseError the exception thrown by the parser
+     */
+    public void checkExit(Exception parseError) throws IOException {
+        finish();
+        if (failure!=null) throw new IOException(failure.getMessage(), parseError);
+    }
+
+    /**
+     * Close stdout and, if it was read to the end, wait for blastn to exit, setting failure if its exit value is non-zero; otherwise kill it.
+     */
+    void finish() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (!eof) {
+            try {
+                skipTrailing();
+            } catch (IOException ex) {
+                // already destroyed
+            }
+        }
+        if (!eof) process.destroy();
+        super.close();
+        try {
+            int exitValue = process.waitFor();
+            stderrThread.join();
+            if (eof && exitValue!=0) {
+                failure = new IOException("blastn returned exit value "+exitValue+": "+getStderr().trim());
+            }
+        } catch (InterruptedException ex) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for blastn to exit", ex);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.ncgr.blast;
+
+/**
+ * Parses decimal ints and doubles directly from a range of a char[] or byte[], without creating Strings, for the numeric fields of
+ * BlastTabularReader lines and RawHsp slices. Surrounding whitespace is allowed. Doubles with at most 15 significant digits and a decimal
+ * exponent within +/-22 are computed exactly from a long mantissa; anything else falls back to Double.parseDouble, as do ints of more than 9 digits.
+ * Malformed numbers, including those with no mantissa digits such as "." or "e5", throw NumberFormatException.
+ *
+ * @author Sam Hokin
+ */
+class DecimalParser {
+
+    // exact powers of ten for the fast double path
+    static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    static int parseInt(char[] chars, int start, int end) {
+        return parseInt(null, chars, start, end);
+    }
+
+    static int parseInt(byte[] bytes, int start, int end) {
+        return parseInt(bytes, null, start, end);
+    }
+
+    static double parseDouble(char[] chars, int start, int end) {
+        return parseDouble(null, chars, start, end);
+    }
+
+    static double parseDouble(byte[] bytes, int start, int end) {
+        return parseDouble(bytes, null, start, end);
+    }
+
+    /**
+     * Parse an int from whichever of bytes or chars is not null.
+     */
+    static int parseInt(byte[] bytes, char[] chars, int start, int end) {
+        int i = start;
+        while (i<end && isSpace(at(bytes, chars, i))) i++;
+        while (end>i && isSpace(at(bytes, chars, end-1))) end--;
+        boolean negative = false;
+        if (i<end && (at(bytes, chars, i)=='-' || at(bytes, chars, i)=='+')) {
+            negative = at(bytes, chars, i)=='-';
+            i++;
+        }
+        if (i==end || end-i>9) return Integer.parseInt(toString(bytes, chars, start, end).trim());
+        int value = 0;
+        for (; i<end; i++) {
+            int digit = at(bytes, chars, i)-'0';
+            if (digit<0 || digit>9) throw new NumberFormatException("Bad integer: "+toString(bytes, chars, start, end));
+            value = value*10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a double from whichever of bytes or chars is not null.
+     */
+    static double parseDouble(byte[] bytes, char[] chars, int start, int end) {
+        int i = start;
+        while (i<end && isSpace(at(bytes, chars, i))) i++;
+        while (end>i && isSpace(at(bytes, chars, end-1))) end--;
+        boolean negative = false;
+        if (i<end && (at(bytes, chars, i)=='-' || at(bytes, chars, i)=='+')) {
+            negative = at(bytes, chars, i)=='-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+        char c;
+        for (; i<end && (c=at(bytes, chars, i))>='0' && c<='9'; i++) {
+            anyDigits = true;
+            if (mantissa!=0 || c!='0') digits++;
+            mantissa = mantissa*10 + (c-'0');
+        }
+        if (i<end && at(bytes, chars, i)=='.') {
+            for (i++; i<end && (c=at(bytes, chars, i))>='0' && c<='9'; i++) {
+                anyDigits = true;
+                if (mantissa!=0 || c!='0') digits++;
+                mantissa = mantissa*10 + (c-'0');
+                exponent--;
+            }
+        }
+        if (!anyDigits) throw new NumberFormatException("Bad number: "+toString(bytes, chars, start, end));
+        boolean ok = true;
+        if (i<end && (at(bytes, chars, i)=='e' || at(bytes, chars, i)=='E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i<end && (at(bytes, chars, i)=='-' || at(bytes, chars, i)=='+')) {
+                negativeExp = at(bytes, chars, i)=='-';
+                i++;
+            }
+            int exp = 0;
+            ok = i<end;
+            for (; i<end && (c=at(bytes, chars, i))>='0' && c<='9'; i++) {
+                exp = exp*10 + (c-'0');
+                if (exp>10000) exp = 10000;
+            }
+            exponent += negativeExp ? -exp : exp;
+        }
+        if (ok && i==end && digits<=15 && exponent>=-22 && exponent<=22) {
+            double value = exponent<0 ? mantissa/POW10[-exponent] : mantissa*POW10[exponent];
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(toString(bytes, chars, start, end).trim());
+    }
+
+    static char at(byte[] bytes, char[] chars, int i) {
+        return bytes!=null ? (char) (bytes[i] & 0xFF) : chars[i];
+    }
+
+    static boolean isSpace(char c) {
+        return c==' ' || c=='\t' || c=='\n' || c=='\r';
+    }
+
+    static String toString(byte[] bytes, char[] chars, int start, int end) {
+        if (bytes!=null) {
+            char[] text = new char[end-start];
+            for (int i=start; i<end; i++) text[i-start] = (char) (bytes[i] & 0xFF);
+            return new String(text);
+        }
+        return new String(chars, start, end-start);
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.ncgr.blast;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.biojava.nbio.core.exceptions.CompoundNotFoundException;
+import org.biojava.nbio.core.sequence.DNASequence;
+import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
+import org.biojava.nbio.core.sequence.io.GenericFastaHeaderParser;
+
+/**
+ * Reads a multi-FASTA file one record at a time as plain Strings, so that memory is bounded by the largest single sequence
+ * rather than the whole file of DNASequence objects. Files whose names end in .gz are gunzipped on the fly.
+ * IDs are parsed from the header lines with BioJava's GenericFastaHeaderParser, so they are the same keys FastaReaderHelper would give.
+ *
+ * @author Sam Hokin
+ */
+public class FastaStreamReader implements Closeable {
+
+    static final int BUFFER_SIZE = 65536;
+
+    GenericFastaHeaderParser<DNASequence,NucleotideCompound> headerParser = new GenericFastaHeaderParser<DNASequence,NucleotideCompound>();
+    BufferedReader reader;
+    String nextHeader;
+    StringBuilder sequence = new StringBuilder();
+
+    String header;
+    String id;
+
+    /**
+     * Open the given FASTA file, which may be gzipped.
+     *
+     * @param filename the FASTA file name
+     */
+    public FastaStreamReader(String filename) throws IOException {
+        InputStream inStream = new FileInputStream(filename);
+        if (filename.endsWith(".gz")) inStream = new GZIPInputStream(inStream, BUFFER_SIZE);
+        reader = new BufferedReader(new InputStreamReader(inStream, StandardCharsets.ISO_8859_1), BUFFER_SIZE);
+    }
+
+    /**
+     * Advance to the next record.
+     *
+     * @return true if there is a next record, false at the end of the file
+     */
+    public boolean next() throws IOException {
+        // find the first header
+        while (nextHeader==null) {
+            String line = reader.readLine();
+            if (line==null) return false;
+            line = line.trim();
+            if (line.startsWith(">")) nextHeader = line.substring(1).trim();
+        }
+        header = nextHeader;
+        nextHeader = null;
+        id = null;
+        sequence.setLength(0);
+        String line;
+        while ((line=reader.readLine())!=null) {
+            line = line.trim();
+            if (line.startsWith(">")) {
+                nextHeader = line.substring(1).trim();
+                break;
+            }
+            sequence.append(line);
+        }
+        return true;
+    }
+
+    /**
+     * Return the header line of the current record, without the leading &gt;.
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    /**
+     * Return the ID of the current record, as parsed from its header by GenericFastaHeaderParser.
+     */
+    public String getID() {
+        if (id==null) {
+            try {
+                // the parser sets the accession on a sequence, so give it an empty one
+                DNASequence placeholder = new DNASequence("");
+                headerParser.parseHeader(header, placeholder);
+                id = placeholder.getAccession().getID();
+            } catch (CompoundNotFoundException ex) {
+                // not possible for an empty sequence
+                throw new RuntimeException(ex);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Return the sequence of the current record, with line breaks and surrounding whitespace removed.
+     */
+    public String getSequence() {
+        return sequence.toString();
+    }
+
+    /**
+     * Close the underlying file.
+     */
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
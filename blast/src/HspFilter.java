@@ -0,0 +1,15 @@
+package org.ncgr.blast;
+
+/**
+ * A predicate over the raw fields of an Hsp, applied while parsing so that rejected HSPs never become Hsp objects or combined sequences.
+ *
+ * @author Sam Hokin
+ */
+public interface HspFilter {
+
+    /**
+     * Return true to keep the given HSP. The RawHsp is reused for the next HSP, so it must not be kept.
+     */
+    public boolean accept(RawHsp hsp);
+
+}
@@ -0,0 +1,36 @@
+package org.ncgr.blast;
+
+/**
+ * A compact HSP parsed from blastn tabular output (-outfmt 6 or 7) with the fixed column set BlastUtils.TABULAR_COLUMNS,
+ * holding primitives rather than the Strings of the JAXB Hsp class.
+ * The query and subject sequences are only present if BlastUtils.TABULAR_SEQUENCE_COLUMNS were requested; otherwise they are null.
+ *
+ * @author Sam Hokin
+ */
+public class HspRecord {
+
+    public String queryID;   // qseqid
+    public String subjectID; // sseqid
+    public double pident;    // percentage of identical matches
+    public int length;       // alignment length
+    public int mismatch;     // number of mismatches
+    public int gapopen;      // number of gap openings
+    public int qstart;       // start of alignment in query
+    public int qend;         // end of alignment in query
+    public int sstart;       // start of alignment in subject
+    public int send;         // end of alignment in subject
+    public double evalue;    // expect value
+    public double bitscore;  // bit score
+    public byte[] qseq;      // aligned part of query sequence, or null
+    public byte[] sseq;      // aligned part of subject sequence, or null
+
+    /**
+     * Return the record as a line of tabular output, without a newline.
+     */
+    public String toString() {
+        String s = queryID+"\t"+subjectID+"\t"+pident+"\t"+length+"\t"+mismatch+"\t"+gapopen+"\t"+qstart+"\t"+qend+"\t"+sstart+"\t"+send+"\t"+evalue+"\t"+bitscore;
+        if (qseq!=null) s += "\t"+new String(qseq)+"\t"+new String(sseq);
+        return s;
+    }
+
+}
@@ -0,0 +1,324 @@
+package org.ncgr.blast;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A column-wise store of BLAST hits in primitive columns: query, hit and motif indexes into StringDictionary instances,
+ * query and hit from/to coordinates, and float evalue and bitscore. Rows can be sorted, filtered and grouped by motif without creating objects.
+ * <p>
+ * A table constructed with a spill directory keeps its columns in memory-mapped files there, one per column, rather than on the heap,
+ * for result sets that don't fit in memory; the dictionaries stay on the heap. The row orders used by sort() and groupByMotif() are
+ * memory-mapped scratch files there too, and rows are permuted in place, so those need heap only in proportion to the number of motifs.
+ * Float evalues below Float.MIN_VALUE are stored as zero.
+ *
+ * @author Sam Hokin
+ */
+public class HspTable implements Closeable {
+
+    /**
+     * Compares two rows of the table by index.
+     */
+    public interface RowComparator {
+        public int compare(HspTable table, int row1, int row2);
+    }
+
+    /**
+     * Tests a row of the table by index.
+     */
+    public interface RowPredicate {
+        public boolean test(HspTable table, int row);
+    }
+
+    // column order in the spill directory
+    static final String[] INT_COLUMNS = { "queryIdx", "hitIdx", "motifIdx", "queryFrom", "queryTo", "hitFrom", "hitTo" };
+    static final String[] FLOAT_COLUMNS = { "evalue", "bitscore" };
+    static final int INITIAL_CAPACITY = 1024;
+
+    StringDictionary ids = new StringDictionary();    // query and hit sequence IDs
+    StringDictionary motifs = new StringDictionary(); // combined motif sequences
+
+    IntBuffer[] intColumns = new IntBuffer[INT_COLUMNS.length];
+    FloatBuffer[] floatColumns = new FloatBuffer[FLOAT_COLUMNS.length];
+    int size = 0;
+    int capacity = 0;
+
+    File spillDir;
+    FileChannel[] intChannels;
+    FileChannel[] floatChannels;
+
+    /**
+     * Construct an empty table on the heap.
+     */
+    public HspTable() {
+        try {
+            grow(INITIAL_CAPACITY);
+        } catch (IOException ex) {
+            // not possible on the heap
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Construct an empty table whose columns are memory-mapped files in the given directory, which is created if necessary.
+     *
+     * @param spillDir the directory to hold the column files
+     */
+    public HspTable(File spillDir) throws IOException {
+        if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+            throw new IOException("Could not create spill directory "+spillDir);
+        }
+        this.spillDir = spillDir;
+        intChannels = new FileChannel[INT_COLUMNS.length];
+        floatChannels = new FileChannel[FLOAT_COLUMNS.length];
+        for (int c=0; c<INT_COLUMNS.length; c++) {
+            intChannels[c] = new RandomAccessFile(new File(spillDir, INT_COLUMNS[c]+".col"), "rw").getChannel();
+        }
+        for (int c=0; c<FLOAT_COLUMNS.length; c++) {
+            floatChannels[c] = new RandomAccessFile(new File(spillDir, FLOAT_COLUMNS[c]+".col"), "rw").getChannel();
+        }
+        grow(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Add a row from an HspRecord and the motif it represents.
+     *
+     * @param record the HspRecord
+     * @param motif the combined motif sequence, or null if none
+     * @return the row index
+     */
+    public int add(HspRecord record, String motif) throws IOException {
+        return add(record.queryID, record.subjectID, motif, record.qstart, record.qend, record.sstart, record.send, record.evalue, record.bitscore);
+    }
+
+    /**
+     * Add a row from a JAXB Hsp, parsing its coordinates and scores once.
+     *
+     * @param queryID the query sequence ID
+     * @param hitID the hit sequence ID
+     * @param motif the combined motif sequence, or null if none
+     * @param hsp the Hsp
+     * @return the row index
+     */
+    public int add(String queryID, String hitID, String motif, Hsp hsp) throws IOException {
+        return add(queryID, hitID, motif,
+                   Integer.parseInt(hsp.getHspQueryFrom()), Integer.parseInt(hsp.getHspQueryTo()),
+                   Integer.parseInt(hsp.getHspHitFrom()), Integer.parseInt(hsp.getHspHitTo()),
+                   parseScore(hsp.getHspEvalue()), parseScore(hsp.getHspBitScore()));
+    }
+
+    /**
+     * Add a row.
+     *
+     * @return the row index
+     */
+    public int add(String queryID, String hitID, String motif, int queryFrom, int queryTo, int hitFrom, int hitTo, double evalue, double bitscore) throws IOException {
+        if (size==capacity) grow(capacity*2);
+        int row = size++;
+        intColumns[0].put(row, ids.intern(queryID));
+        intColumns[1].put(row, ids.intern(hitID));
+        intColumns[2].put(row, motif==null ? -1 : motifs.intern(motif));
+        intColumns[3].put(row, queryFrom);
+        intColumns[4].put(row, queryTo);
+        intColumns[5].put(row, hitFrom);
+        intColumns[6].put(row, hitTo);
+        floatColumns[0].put(row, (float) evalue);
+        floatColumns[1].put(row, (float) bitscore);
+        return row;
+    }
+
+    public int size() { return size; }
+
+    public StringDictionary getIds() { return ids; }
+    public StringDictionary getMotifs() { return motifs; }
+
+    public int getQueryIdx(int row) { return intColumns[0].get(row); }
+    public int getHitIdx(int row) { return intColumns[1].get(row); }
+    public int getMotifIdx(int row) { return intColumns[2].get(row); }
+    public int getQueryFrom(int row) { return intColumns[3].get(row); }
+    public int getQueryTo(int row) { return intColumns[4].get(row); }
+    public int getHitFrom(int row) { return intColumns[5].get(row); }
+    public int getHitTo(int row) { return intColumns[6].get(row); }
+    public float getEvalue(int row) { return floatColumns[0].get(row); }
+    public float getBitscore(int row) { return floatColumns[1].get(row); }
+
+    public String getQueryID(int row) { return ids.get(getQueryIdx(row)); }
+    public String getHitID(int row) { return ids.get(getHitIdx(row)); }
+    public String getMotif(int row) { int m = getMotifIdx(row); return m<0 ? null : motifs.get(m); }
+
+    /**
+     * Stable-sort the rows with the given comparator, permuting every column in place.
+     */
+    public void sort(RowComparator comparator) throws IOException {
+        IntBuffer order = newScratchColumn("order");
+        for (int i=0; i<size; i++) order.put(i, i);
+        IntBuffer temp = newScratchColumn("temp");
+        // bottom-up merge sort of row indexes
+        for (int width=1; width<size; width*=2) {
+            for (int lo=0; lo<size-width; lo+=2*width) {
+                int mid = lo+width;
+                int hi = Math.min(lo+2*width, size);
+                int i = lo, j = mid, k = lo;
+                while (i<mid && j<hi) {
+                    if (comparator.compare(this, order.get(j), order.get(i))<0) {
+                        temp.put(k++, order.get(j++));
+                    } else {
+                        temp.put(k++, order.get(i++));
+                    }
+                }
+                while (i<mid) temp.put(k++, order.get(i++));
+                while (j<hi) temp.put(k++, order.get(j++));
+                for (k=lo; k<hi; k++) order.put(k, temp.get(k));
+            }
+        }
+        permute(order);
+    }
+
+    /**
+     * Keep only the rows which pass the given predicate, compacting the columns in place.
+     *
+     * @return the number of rows removed
+     */
+    public int retain(RowPredicate predicate) {
+        int kept = 0;
+        for (int row=0; row<size; row++) {
+            if (predicate.test(this, row)) {
+                if (kept!=row) {
+                    for (IntBuffer column : intColumns) column.put(kept, column.get(row));
+                    for (FloatBuffer column : floatColumns) column.put(kept, column.get(row));
+                }
+                kept++;
+            }
+        }
+        int removed = size-kept;
+        size = kept;
+        return removed;
+    }
+
+    /**
+     * Group the rows by motif with a counting sort on the motif index, which is stable within each motif.
+     * Rows with no motif sort to the end and are not part of any group.
+     *
+     * @return an array of motifs.size()+1 offsets, such that the rows for motif index m are [offsets[m], offsets[m+1])
+     */
+    public int[] groupByMotif() throws IOException {
+        int numMotifs = motifs.size();
+        int[] offsets = new int[numMotifs+1];
+        for (int row=0; row<size; row++) {
+            int m = getMotifIdx(row);
+            if (m>=0) offsets[m+1]++;
+        }
+        for (int m=0; m<numMotifs; m++) offsets[m+1] += offsets[m];
+        int[] next = new int[numMotifs];
+        System.arraycopy(offsets, 0, next, 0, numMotifs);
+        int noMotif = offsets[numMotifs];
+        IntBuffer order = newScratchColumn("order");
+        for (int row=0; row<size; row++) {
+            int m = getMotifIdx(row);
+            if (m>=0) {
+                order.put(next[m]++, row);
+            } else {
+                order.put(noMotif++, row);
+            }
+        }
+        permute(order);
+        return offsets;
+    }
+
+    /**
+     * Release the spill files, if any; the table can't be used afterwards.
+     */
+    public void close() throws IOException {
+        if (spillDir==null) return;
+        for (FileChannel channel : intChannels) channel.close();
+        for (FileChannel channel : floatChannels) channel.close();
+    }
+
+    /**
+     * Rearrange every column so that new row i holds old row order[i], following the cycles of the permutation so that only one row
+     * is held aside at a time. The order is overwritten.
+     */
+    void permute(IntBuffer order) {
+        int[] intRow = new int[intColumns.length];
+        float[] floatRow = new float[floatColumns.length];
+        for (int start=0; start<size; start++) {
+            if (order.get(start)<0) continue; // already placed
+            for (int c=0; c<intColumns.length; c++) intRow[c] = intColumns[c].get(start);
+            for (int c=0; c<floatColumns.length; c++) floatRow[c] = floatColumns[c].get(start);
+            int i = start;
+            while (true) {
+                int from = order.get(i);
+                order.put(i, -1);
+                if (from==start) {
+                    for (int c=0; c<intColumns.length; c++) intColumns[c].put(i, intRow[c]);
+                    for (int c=0; c<floatColumns.length; c++) floatColumns[c].put(i, floatRow[c]);
+                    break;
+                }
+                for (IntBuffer column : intColumns) column.put(i, column.get(from));
+                for (FloatBuffer column : floatColumns) column.put(i, column.get(from));
+                i = from;
+            }
+        }
+    }
+
+    /**
+     * Return a scratch column of size ints: on the heap, or in spill mode a memory-mapped file in the spill directory,
+     * which is deleted at once since the mapping outlives it.
+     */
+    IntBuffer newScratchColumn(String name) throws IOException {
+        int length = Math.max(size, 1);
+        if (spillDir==null) return IntBuffer.allocate(length);
+        File file = new File(spillDir, name+".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 4L*length).asIntBuffer();
+        } finally {
+            if (!file.delete()) file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Parse an Hsp evalue or bit score, which is NaN if it is missing.
+     */
+    static double parseScore(String value) {
+        return value==null ? Double.NaN : Double.parseDouble(value);
+    }
+
+    /**
+     * Grow the columns to the given capacity, on the heap or by remapping the spill files.
+     */
+    void grow(int newCapacity) throws IOException {
+        // a single mapping, and a heap array, is limited to 2GB
+        if (newCapacity<=0 || newCapacity>Integer.MAX_VALUE/4) throw new IOException("HspTable can't grow beyond "+capacity+" rows");
+        for (int c=0; c<intColumns.length; c++) {
+            IntBuffer column;
+            if (spillDir==null) {
+                column = IntBuffer.allocate(newCapacity);
+            } else {
+                column = intChannels[c].map(FileChannel.MapMode.READ_WRITE, 0, 4L*newCapacity).asIntBuffer();
+            }
+            if (intColumns[c]!=null && spillDir==null) {
+                System.arraycopy(intColumns[c].array(), 0, column.array(), 0, size);
+            }
+            intColumns[c] = column;
+        }
+        for (int c=0; c<floatColumns.length; c++) {
+            FloatBuffer column;
+            if (spillDir==null) {
+                column = FloatBuffer.allocate(newCapacity);
+            } else {
+                column = floatChannels[c].map(FileChannel.MapMode.READ_WRITE, 0, 4L*newCapacity).asFloatBuffer();
+            }
+            if (floatColumns[c]!=null && spillDir==null) {
+                System.arraycopy(floatColumns[c].array(), 0, column.array(), 0, size);
+            }
+            floatColumns[c] = column;
+        }
+        capacity = newCapacity;
+    }
+
+}
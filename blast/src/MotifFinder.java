@@ -0,0 +1,296 @@
+package org.ncgr.blast;
+
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * An in-memory, multi-threaded replacement for the all-vs-all ungapped blastn run in SequenceBlaster, for short sequences such as promoters.
+ * <p>
+ * All sequences are indexed by their 2-bit packed k-mers (k = word size) in a single compressed posting list. Each sequence is then used as query:
+ * every k-mer seed shared with another sequence is extended ungapped in both directions with blastn's megablast scores (+1/-2) and an X-drop,
+ * each diagonal being extended only once, and the result is kept if its identity is at least percIdentity and its e-value at most the cutoff.
+ * Kept HSPs are handed to a consumer as SequenceHit instances, exactly as SequenceBlaster builds them from blastn output.
+ * <p>
+ * E-values and bit scores use blastn's ungapped Karlin-Altschul parameters for +1/-2 scoring. Each query is searched against a database of
+ * all the other sequences, and the search space is the product of the query and database lengths, less blastn's length adjustment.
+ *
+ * @author Sam Hokin
+ */
+public class MotifFinder {
+
+    public static final int MATCH = 1;
+    public static final int MISMATCH = -2;
+    public static final int XDROP = 10;
+
+    // blastn's ungapped Karlin-Altschul parameters for MATCH and MISMATCH
+    public static final double LAMBDA = 1.28;
+    public static final double K = 0.46;
+    public static final double H = 0.85;
+
+    // blastn's default e-value cutoff
+    public static final double DEFAULT_EVALUE = 10.0;
+
+    // the index allocates two arrays of 4^k ints before any postings, 32 MB at k=11 but 512 MB at k=13
+    public static final int MAX_WORD_SIZE = 11;
+
+    List<String> ids;
+    byte[][] sequences;
+    int wordSize;
+    double percIdentity;
+    double evalue;
+
+    // effective search space of each sequence as query against the others
+    double[] searchSpaces;
+
+    // k-mer code -> [offsets[code], offsets[code+1]) in postingSeqs/postingPositions
+    int[] offsets;
+    int[] postingSeqs;
+    int[] postingPositions;
+
+    /**
+     * Index the given sequences.
+     *
+     * @param ids the sequence IDs, used as query and hit IDs in the SequenceHit instances
+     * @param sequences the DNA sequences, in the same order as ids
+     * @param wordSize the seed length, at most MAX_WORD_SIZE
+     * @param percIdentity the minimum percent identity of a kept HSP
+     */
+    public MotifFinder(List<String> ids, List<String> sequences, int wordSize, double percIdentity) {
+        this(ids, sequences, wordSize, percIdentity, DEFAULT_EVALUE);
+    }
+
+    /**
+     * Index the given sequences, with an e-value cutoff.
+     *
+     * @param ids the sequence IDs, used as query and hit IDs in the SequenceHit instances
+     * @param sequences the DNA sequences, in the same order as ids
+     * @param wordSize the seed length, at most MAX_WORD_SIZE
+     * @param percIdentity the minimum percent identity of a kept HSP
+     * @param evalue the maximum e-value of a kept HSP
+     */
+    public MotifFinder(List<String> ids, List<String> sequences, int wordSize, double percIdentity, double evalue) {
+        if (wordSize<1 || wordSize>MAX_WORD_SIZE) {
+            throw new IllegalArgumentException("wordSize must be between 1 and "+MAX_WORD_SIZE);
+        }
+        this.ids = ids;
+        this.wordSize = wordSize;
+        this.percIdentity = percIdentity;
+        this.evalue = evalue;
+        this.sequences = new byte[sequences.size()][];
+        long totalLength = 0;
+        for (int s=0; s<sequences.size(); s++) {
+            this.sequences[s] = sequences.get(s).toUpperCase().getBytes();
+            totalLength += this.sequences[s].length;
+        }
+        searchSpaces = new double[this.sequences.length];
+        for (int s=0; s<this.sequences.length; s++) {
+            searchSpaces[s] = searchSpace(this.sequences[s].length, totalLength-this.sequences[s].length, this.sequences.length-1);
+        }
+        buildIndex();
+    }
+
+    /**
+     * Return the effective search space of a query against a database, with blastn's length adjustment: the expected HSP length ell
+     * solving ell = ln(K*(m-ell)*(n-N*ell))/H, found by fixed-point iteration, is taken off the query and each database sequence.
+     *
+     * @param m the query length
+     * @param n the total database length
+     * @param numSeqs the number of database sequences
+     */
+    static double searchSpace(int m, long n, int numSeqs) {
+        if (m==0 || n==0 || numSeqs==0) return 0.0;
+        // keep at least one base of the query and of each database sequence
+        double maxEll = Math.max(0.0, Math.min(m-1, (double) n/numSeqs-1));
+        double ell = 0.0;
+        for (int iteration=0; iteration<20; iteration++) {
+            double next = Math.log(K*(m-ell)*(n-numSeqs*ell))/H;
+            next = Math.max(0.0, Math.min(next, maxEll));
+            if (Math.abs(next-ell)<0.5) {
+                ell = next;
+                break;
+            }
+            ell = next;
+        }
+        ell = Math.floor(ell);
+        return (m-ell)*(n-numSeqs*ell);
+    }
+
+    /**
+     * Return the e-value of a raw score in the given search space.
+     */
+    static double evalue(int score, double searchSpace) {
+        return K*searchSpace*Math.exp(-LAMBDA*score);
+    }
+
+    /**
+     * Return the bit score of a raw score.
+     */
+    static double bitScore(int score) {
+        return (LAMBDA*score-Math.log(K))/Math.log(2.0);
+    }
+
+    /**
+     * Search every sequence against all the others on the fork-join pool, passing each kept HSP to the consumer, which must be thread-safe.
+     *
+     * @param consumer receives a SequenceHit for each kept HSP
+     */
+    public void findHits(final Consumer<SequenceHit> consumer) {
+        final ThreadLocal<MotifIndex.LongIntMap> extended = ThreadLocal.withInitial(() -> new MotifIndex.LongIntMap());
+        IntStream.range(0, sequences.length).parallel().forEach(q -> findHits(q, extended.get(), consumer));
+    }
+
+    /**
+     * Return the 2-bit code of a base, or -1 if it isn't A, C, G or T.
+     */
+    static int code(byte b) {
+        switch (b) {
+        case 'A': return 0;
+        case 'C': return 1;
+        case 'G': return 2;
+        case 'T': return 3;
+        default: return -1;
+        }
+    }
+
+    /**
+     * Build the posting lists with a counting pass and a filling pass over the rolling 2-bit k-mer codes.
+     */
+    void buildIndex() {
+        int numCodes = 1<<(2*wordSize);
+        offsets = new int[numCodes+1];
+        for (byte[] seq : sequences) {
+            forEachKmer(seq, (pos, kmer) -> offsets[kmer+1]++);
+        }
+        for (int c=0; c<numCodes; c++) offsets[c+1] += offsets[c];
+        postingSeqs = new int[offsets[numCodes]];
+        postingPositions = new int[offsets[numCodes]];
+        final int[] next = new int[numCodes];
+        System.arraycopy(offsets, 0, next, 0, numCodes);
+        for (int s=0; s<sequences.length; s++) {
+            final int seqIdx = s;
+            forEachKmer(sequences[s], (pos, kmer) -> {
+                    int p = next[kmer]++;
+                    postingSeqs[p] = seqIdx;
+                    postingPositions[p] = pos;
+                });
+        }
+    }
+
+    interface KmerVisitor {
+        public void visit(int pos, int kmer);
+    }
+
+    /**
+     * Visit the start position and code of every k-mer of A, C, G and T in a sequence.
+     */
+    void forEachKmer(byte[] seq, KmerVisitor visitor) {
+        int mask = (1<<(2*wordSize))-1;
+        int kmer = 0;
+        int valid = 0;
+        for (int i=0; i<seq.length; i++) {
+            int c = code(seq[i]);
+            if (c<0) {
+                valid = 0;
+                kmer = 0;
+            } else {
+                kmer = ((kmer<<2) | c) & mask;
+                valid++;
+                if (valid>=wordSize) visitor.visit(i-wordSize+1, kmer);
+            }
+        }
+    }
+
+    /**
+     * Find the HSPs of query q against every other sequence.
+     *
+     * @param extended a scratch map of (subject, diagonal) to the query position up to which that diagonal has been extended
+     */
+    void findHits(int q, MotifIndex.LongIntMap extended, Consumer<SequenceHit> consumer) {
+        extended.clear();
+        byte[] query = sequences[q];
+        forEachKmer(query, (i, kmer) -> {
+                for (int p=offsets[kmer]; p<offsets[kmer+1]; p++) {
+                    int s = postingSeqs[p];
+                    if (s==q) continue;
+                    int j = postingPositions[p];
+                    long diagonal = ((long) s)<<32 | ((j-i) & 0xFFFFFFFFL);
+                    int end = extended.get(diagonal);
+                    if (end>i) continue; // already covered by an earlier extension on this diagonal
+                    extended.put(diagonal, extend(q, i, s, j, consumer));
+                }
+            });
+    }
+
+    /**
+     * Extend a seed at query position i and subject position j ungapped in both directions, pass it on if it passes percIdentity
+     * and the e-value cutoff, and return the query position just past its right end.
+     */
+    int extend(int q, int i, int s, int j, Consumer<SequenceHit> consumer) {
+        byte[] query = sequences[q];
+        byte[] subject = sequences[s];
+        int seedScore = 0;
+        for (int k=0; k<wordSize; k++) seedScore += score(query[i+k], subject[j+k]);
+        // extend right from the end of the seed
+        int right = 0;
+        int best = 0;
+        int score = 0;
+        for (int k=wordSize; i+k<query.length && j+k<subject.length; k++) {
+            score += score(query[i+k], subject[j+k]);
+            if (score>best) {
+                best = score;
+                right = k-wordSize+1;
+            } else if (best-score>XDROP) {
+                break;
+            }
+        }
+        int total = seedScore+best;
+        // extend left from the start of the seed
+        int left = 0;
+        best = 0;
+        score = 0;
+        for (int k=1; i-k>=0 && j-k>=0; k++) {
+            score += score(query[i-k], subject[j-k]);
+            if (score>best) {
+                best = score;
+                left = k;
+            } else if (best-score>XDROP) {
+                break;
+            }
+        }
+        total += best;
+        int qFrom = i-left;
+        int sFrom = j-left;
+        int length = left+wordSize+right;
+        int identities = 0;
+        for (int k=0; k<length; k++) {
+            if (score(query[qFrom+k], subject[sFrom+k])==MATCH) identities++;
+        }
+        double hspEvalue = evalue(total, searchSpaces[q]);
+        if (100.0*identities>=percIdentity*length && hspEvalue<=evalue) {
+            Hsp hsp = new Hsp();
+            hsp.setHspScore(String.valueOf(total));
+            hsp.setHspBitScore(String.valueOf(bitScore(total)));
+            hsp.setHspEvalue(String.valueOf(hspEvalue));
+            hsp.setHspQueryFrom(String.valueOf(qFrom+1));
+            hsp.setHspQueryTo(String.valueOf(qFrom+length));
+            hsp.setHspHitFrom(String.valueOf(sFrom+1));
+            hsp.setHspHitTo(String.valueOf(sFrom+length));
+            hsp.setHspQueryFrame("1");
+            hsp.setHspHitFrame("1");
+            hsp.setHspIdentity(String.valueOf(identities));
+            hsp.setHspPositive(String.valueOf(identities));
+            hsp.setHspGaps("0");
+            hsp.setHspAlignLen(String.valueOf(length));
+            hsp.setHspQseq(new String(query, qFrom, length));
+            hsp.setHspHseq(new String(subject, sFrom, length));
+            consumer.accept(new SequenceHit(ids.get(q), ids.get(s), hsp));
+        }
+        return qFrom+length;
+    }
+
+    static int score(byte a, byte b) {
+        return a==b && code(a)>=0 ? MATCH : MISMATCH;
+    }
+
+}
@@ -0,0 +1,185 @@
+package org.ncgr.blast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An Aho-Corasick automaton over every variant of every motif group, which tells in one linear pass over a subject sequence
+ * which groups have at least one variant contained in it, stopping as soon as every group has been found.
+ * Matching is literal and case-sensitive, the same as String.contains. Instances are immutable and may be shared between threads.
+ *
+ * @author Sam Hokin
+ */
+public class MotifGroupMatcher {
+
+    int numGroups;
+    int words;        // longs per group mask
+
+    // byte -> alphabet index; bytes that appear in no variant map to 0, which always fails back to the root
+    int[] alphabet = new int[256];
+    int alphabetSize;
+
+    // dense transition table: next state = transitions[state*alphabetSize + symbol]
+    int[] transitions;
+    // the groups with a variant ending at each state, including via failure links: groupMasks[state*words ...]
+    long[] groupMasks;
+    // whether a state has any groups, to skip the mask merge on most states
+    boolean[] terminal;
+
+    /**
+     * Build the automaton.
+     *
+     * @param groups the motif groups, each a collection of variant sequences
+     */
+    public MotifGroupMatcher(List<? extends Collection<String>> groups) {
+        numGroups = groups.size();
+        words = Math.max(1, (numGroups+63)/64);
+
+        // alphabet of the letters used in the variants, 0 reserved for all others
+        alphabetSize = 1;
+        for (Collection<String> group : groups) {
+            for (String variant : group) {
+                for (int i=0; i<variant.length(); i++) {
+                    int c = variant.charAt(i) & 0xFF;
+                    if (alphabet[c]==0) alphabet[c] = alphabetSize++;
+                }
+            }
+        }
+
+        // build the trie with -1 for missing transitions
+        List<int[]> trie = new ArrayList<int[]>();
+        List<long[]> masks = new ArrayList<long[]>();
+        trie.add(newRow());
+        masks.add(new long[words]);
+        for (int g=0; g<numGroups; g++) {
+            for (String variant : groups.get(g)) {
+                int state = 0;
+                for (int i=0; i<variant.length(); i++) {
+                    int symbol = alphabet[variant.charAt(i) & 0xFF];
+                    if (trie.get(state)[symbol]<0) {
+                        trie.get(state)[symbol] = trie.size();
+                        trie.add(newRow());
+                        masks.add(new long[words]);
+                    }
+                    state = trie.get(state)[symbol];
+                }
+                masks.get(state)[g>>6] |= 1L<<(g&63);
+            }
+        }
+
+        // breadth-first: fill in failure transitions and merge masks along failure links
+        int numStates = trie.size();
+        transitions = new int[numStates*alphabetSize];
+        groupMasks = new long[numStates*words];
+        terminal = new boolean[numStates];
+        int[] fail = new int[numStates];
+        int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+        for (int symbol=0; symbol<alphabetSize; symbol++) {
+            int child = trie.get(0)[symbol];
+            if (child<0) {
+                transitions[symbol] = 0;
+            } else {
+                transitions[symbol] = child;
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        // an empty variant ends at the root, and so like String.contains("") matches every subject, even an empty one
+        System.arraycopy(masks.get(0), 0, groupMasks, 0, words);
+        for (int w=0; w<words; w++) {
+            if (groupMasks[w]!=0) terminal[0] = true;
+        }
+        while (head<tail) {
+            int state = queue[head++];
+            long[] mask = masks.get(state);
+            for (int w=0; w<words; w++) {
+                groupMasks[state*words+w] = mask[w] | groupMasks[fail[state]*words+w];
+                if (groupMasks[state*words+w]!=0) terminal[state] = true;
+            }
+            for (int symbol=0; symbol<alphabetSize; symbol++) {
+                int child = trie.get(state)[symbol];
+                if (child<0) {
+                    transitions[state*alphabetSize+symbol] = transitions[fail[state]*alphabetSize+symbol];
+                } else {
+                    transitions[state*alphabetSize+symbol] = child;
+                    fail[child] = transitions[fail[state]*alphabetSize+symbol];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the number of motif groups.
+     */
+    public int getNumGroups() {
+        return numGroups;
+    }
+
+    /**
+     * Return true if the subject contains at least one variant from every group, scanning only as far as needed.
+     */
+    public boolean matchesAll(CharSequence subject) {
+        return scan(subject, true)==numGroups;
+    }
+
+    /**
+     * Return a mask of the groups with a variant contained in the subject: group g is bit (g&amp;63) of element g/64.
+     */
+    public long[] matchedGroups(CharSequence subject) {
+        long[] found = new long[words];
+        scan(subject, found, false);
+        return found;
+    }
+
+    int scan(CharSequence subject, boolean stopWhenAll) {
+        return scan(subject, new long[words], stopWhenAll);
+    }
+
+    /**
+     * Run the automaton over the subject, or-ing matched groups into found, and return the number of groups found.
+     */
+    int scan(CharSequence subject, long[] found, boolean stopWhenAll) {
+        if (numGroups==0) return 0;
+        int count = 0;
+        int state = 0;
+        if (terminal[0]) {
+            count += merge(0, found);
+            if (stopWhenAll && count==numGroups) return count;
+        }
+        for (int i=0; i<subject.length(); i++) {
+            state = transitions[state*alphabetSize + alphabet[subject.charAt(i) & 0xFF]];
+            if (terminal[state]) {
+                count += merge(state, found);
+                if (stopWhenAll && count==numGroups) return count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Or the groups of a state into found, and return the number of groups newly found.
+     */
+    int merge(int state, long[] found) {
+        int added = 0;
+        for (int w=0; w<words; w++) {
+            long bits = groupMasks[state*words+w] & ~found[w];
+            if (bits!=0) {
+                found[w] |= bits;
+                added += Long.bitCount(bits);
+            }
+        }
+        return added;
+    }
+
+    int[] newRow() {
+        int[] row = new int[alphabetSize];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+}
@@ -0,0 +1,303 @@
+package org.ncgr.blast;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A hash index of motifs (combined sequences) which aggregates SequenceHit instances the way SequenceHits does, without per-hit Strings or sorted sets.
+ * <p>
+ * Motifs made only of A, C, G, T and N and no longer than MAX_ENCODED_LENGTH are keyed by a bijective base-5 encoding packed into a long;
+ * anything else falls back to a String key. Each motif keeps a BitSet of the indexes of the sequence IDs it was found in, and a set of
+ * packed long location keys (sequence index and start position), in place of the uniqueIDs and uniqueHits string sets of SequenceHits.
+ * The score, equal to the SequenceHits score of the number of unique IDs times the SequenceHit score, is updated in O(1) per hit,
+ * and motifs are ranked with a single sort at the end.
+ * <p>
+ * Methods are synchronized so that hits may be added from several threads.
+ *
+ * @author Sam Hokin
+ */
+public class MotifIndex {
+
+    // longest motif that fits the base-5 encoding: 5+5^2+...+5^27 < 2^64
+    public static final int MAX_ENCODED_LENGTH = 27;
+
+    StringDictionary ids = new StringDictionary();
+    LongIntMap encodedMotifs = new LongIntMap();
+    HashMap<String,Integer> otherMotifs = new HashMap<String,Integer>();
+
+    // per-motif columns, indexed by motif index
+    int size = 0;
+    String[] motifs = new String[1024];
+    int[] hitScores = new int[1024];
+    int[] scores = new int[1024];
+    int[] hitCounts = new int[1024];
+    int[] idCounts = new int[1024];
+    BitSet[] sequences = new BitSet[1024];
+    LongSet[] locations = new LongSet[1024];
+
+    /**
+     * Add a SequenceHit to the index, creating its motif if necessary.
+     *
+     * @param seqHit the SequenceHit
+     * @return the motif index
+     */
+    public synchronized int add(SequenceHit seqHit) {
+        int m = indexOf(seqHit.sequence);
+        if (m<0) m = newMotif(seqHit.sequence, seqHit.score);
+        int queryIdx = ids.intern(seqHit.queryID);
+        int hitIdx = ids.intern(seqHit.hitID);
+        if (!sequences[m].get(queryIdx)) {
+            sequences[m].set(queryIdx);
+            idCounts[m]++;
+        }
+        if (!sequences[m].get(hitIdx)) {
+            sequences[m].set(hitIdx);
+            idCounts[m]++;
+        }
+        locations[m].add(locationKey(queryIdx, Integer.parseInt(seqHit.hsp.getHspQueryFrom())));
+        locations[m].add(locationKey(hitIdx, Integer.parseInt(seqHit.hsp.getHspHitFrom())));
+        hitCounts[m]++;
+        scores[m] = idCounts[m]*hitScores[m];
+        return m;
+    }
+
+    /**
+     * Return the index of the given motif, or -1 if it isn't present.
+     */
+    public synchronized int indexOf(String motif) {
+        long code = encode(motif);
+        if (code!=-1) return encodedMotifs.get(code);
+        Integer m = otherMotifs.get(motif);
+        return m==null ? -1 : m;
+    }
+
+    /**
+     * Return the number of motifs.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Return the motif with the given index.
+     */
+    public synchronized String getMotif(int m) {
+        return motifs[m];
+    }
+
+    /**
+     * Return the score of the given motif: the number of unique sequence IDs containing it times its SequenceHit score.
+     */
+    public synchronized int getScore(int m) {
+        return scores[m];
+    }
+
+    /**
+     * Return the number of unique sequence IDs containing the given motif.
+     */
+    public synchronized int getIDCount(int m) {
+        return idCounts[m];
+    }
+
+    /**
+     * Return the number of unique locations (sequence and start) of the given motif.
+     */
+    public synchronized int getLocationCount(int m) {
+        return locations[m].size();
+    }
+
+    /**
+     * Return the number of SequenceHit instances added for the given motif.
+     */
+    public synchronized int getHitCount(int m) {
+        return hitCounts[m];
+    }
+
+    /**
+     * Return true if the given motif was found in the sequence with the given ID, as query or hit.
+     */
+    public synchronized boolean containsID(int m, String id) {
+        int idx = ids.indexOf(id);
+        return idx>=0 && sequences[m].get(idx);
+    }
+
+    /**
+     * Return the dictionary of sequence IDs whose indexes are the bits of getSequences().
+     */
+    public StringDictionary getIds() {
+        return ids;
+    }
+
+    /**
+     * Return a copy of the BitSet of sequence ID indexes containing the given motif.
+     */
+    public synchronized BitSet getSequences(int m) {
+        return (BitSet) sequences[m].clone();
+    }
+
+    /**
+     * Return the motif indexes ranked by descending score, then descending motif, the order of SequenceHits.descendingSet().
+     */
+    public synchronized int[] rank() {
+        Integer[] order = new Integer[size];
+        for (int m=0; m<size; m++) order[m] = m;
+        Arrays.sort(order, (a, b) -> {
+                if (scores[a]!=scores[b]) return scores[b]-scores[a];
+                return motifs[b].compareTo(motifs[a]);
+            });
+        int[] ranked = new int[size];
+        for (int i=0; i<size; i++) ranked[i] = order[i];
+        return ranked;
+    }
+
+    /**
+     * Return the bijective base-5 encoding of a motif of A, C, G, T and N no longer than MAX_ENCODED_LENGTH, or -1 if it can't be encoded.
+     * Distinct motifs, including ones of different lengths, have distinct codes when treated as unsigned.
+     */
+    static long encode(String motif) {
+        if (motif.length()>MAX_ENCODED_LENGTH) return -1;
+        long code = 0;
+        for (int i=0; i<motif.length(); i++) {
+            int digit;
+            switch (motif.charAt(i)) {
+            case 'A': digit = 1; break;
+            case 'C': digit = 2; break;
+            case 'G': digit = 3; break;
+            case 'T': digit = 4; break;
+            case 'N': digit = 5; break;
+            default: return -1;
+            }
+            code = code*5 + digit;
+        }
+        return code;
+    }
+
+    /**
+     * Pack a sequence index and start position into a location key.
+     */
+    static long locationKey(int seqIdx, int start) {
+        return ((long) seqIdx)<<32 | (start & 0xFFFFFFFFL);
+    }
+
+    int newMotif(String motif, int hitScore) {
+        if (size==motifs.length) {
+            int capacity = size*2;
+            motifs = Arrays.copyOf(motifs, capacity);
+            hitScores = Arrays.copyOf(hitScores, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+            hitCounts = Arrays.copyOf(hitCounts, capacity);
+            idCounts = Arrays.copyOf(idCounts, capacity);
+            sequences = Arrays.copyOf(sequences, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+        }
+        int m = size++;
+        motifs[m] = motif;
+        hitScores[m] = hitScore;
+        sequences[m] = new BitSet();
+        locations[m] = new LongSet();
+        long code = encode(motif);
+        if (code!=-1) {
+            encodedMotifs.put(code, m);
+        } else {
+            otherMotifs.put(motif, m);
+        }
+        return m;
+    }
+
+    /**
+     * Mix the bits of a long key for open addressing.
+     */
+    static int hash(long key) {
+        key ^= key>>>33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key>>>33;
+        return (int) key;
+    }
+
+    /**
+     * An open-addressing map from long keys to non-negative int values; get() returns -1 for absent keys.
+     */
+    static class LongIntMap {
+        long[] keys = new long[1024];
+        int[] values = new int[1024];
+        boolean[] used = new boolean[1024];
+        int size = 0;
+
+        int get(long key) {
+            int mask = keys.length-1;
+            for (int i=hash(key)&mask; used[i]; i=(i+1)&mask) {
+                if (keys[i]==key) return values[i];
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if (2*(size+1)>keys.length) rehash();
+            int mask = keys.length-1;
+            int i = hash(key)&mask;
+            while (used[i] && keys[i]!=key) i = (i+1)&mask;
+            if (!used[i]) size++;
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        void clear() {
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        void rehash() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length*2];
+            values = new int[oldKeys.length*2];
+            used = new boolean[oldKeys.length*2];
+            size = 0;
+            for (int i=0; i<oldKeys.length; i++) {
+                if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    /**
+     * An open-addressing set of long keys.
+     */
+    static class LongSet {
+        long[] keys = new long[8];
+        boolean[] used = new boolean[8];
+        int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        boolean add(long key) {
+            if (2*(size+1)>keys.length) rehash();
+            int mask = keys.length-1;
+            int i = hash(key)&mask;
+            while (used[i]) {
+                if (keys[i]==key) return false;
+                i = (i+1)&mask;
+            }
+            used[i] = true;
+            keys[i] = key;
+            size++;
+            return true;
+        }
+
+        void rehash() {
+            long[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length*2];
+            used = new boolean[oldKeys.length*2];
+            size = 0;
+            for (int i=0; i<oldKeys.length; i++) {
+                if (oldUsed[i]) add(oldKeys[i]);
+            }
+        }
+    }
+
+}
@@ -1,13 +1,14 @@
 package org.ncgr.blast;
 
 import java.io.File;
-import java.io.IOException;
-import java.util.Map;
-import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.Set;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.biojava.nbio.core.sequence.DNASequence;
 import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
@@ -20,6 +21,9 @@ import org.biojava.nbio.core.sequence.template.Sequence;
  */
 public class MotifVariationSharers  {
 
+    // subject records are matched in batches of up to this many records or bases, whichever comes first
+    static int BATCH_RECORDS = 1000;
+    static int BATCH_BASES = 1<<24;
 
     public static void main(String[] args) {
 
@@ -32,34 +36,56 @@ public class MotifVariationSharers  {
 
             FastaReaderHelper frh = new FastaReaderHelper();
             
-            LinkedHashMap<String,DNASequence> subjectSequenceMap = frh.readFastaDNASequence(new File(args[0]));
-
-            LinkedHashSet<LinkedHashMap<String,DNASequence>> motifSequenceMaps = new LinkedHashSet<LinkedHashMap<String,DNASequence>>();
+            // each group is the set of motif variations in one FASTA
+            List<Set<String>> motifGroups = new ArrayList<Set<String>>();
             for (int i=1; i<args.length; i++) {
-                motifSequenceMaps.add(frh.readFastaDNASequence(new File(args[i])));
+                Set<String> motifGroup = new LinkedHashSet<String>();
+                for (DNASequence motifSequence : frh.readFastaDNASequence(new File(args[i])).values()) {
+                    motifGroup.add(motifSequence.getSequenceAsString());
+                }
+                motifGroups.add(motifGroup);
             }
-
-            // plow through the subject sequences looking for one of the motif variations from each group
-            for (String subjectID : subjectSequenceMap.keySet()) {
-                DNASequence subjectSequence = subjectSequenceMap.get(subjectID);
-                String subject = subjectSequence.getSequenceAsString();
-                boolean containedInAll = true;
-                for (LinkedHashMap<String,DNASequence> motifSequenceMap : motifSequenceMaps) {
-                    boolean containedInMotifGroup = false;
-                    for (String motifID : motifSequenceMap.keySet()) {
-                        DNASequence motifSequence = motifSequenceMap.get(motifID);
-                        String motif = motifSequence.getSequenceAsString();
-                        if (subject.contains(motif)) containedInMotifGroup = true;
+            final MotifGroupMatcher matcher = new MotifGroupMatcher(motifGroups);
+
+            // stream the subject sequences in batches to a pool of workers, each looking for one of the motif variations from each group;
+            // at most two batches per worker are in flight, and their sharers are printed in file order as the oldest batch finishes
+            int threads = Runtime.getRuntime().availableProcessors();
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            ArrayDeque<Future<List<String>>> inFlight = new ArrayDeque<Future<List<String>>>();
+            try (FastaStreamReader subjectReader = new FastaStreamReader(args[0])) {
+                List<String> ids = new ArrayList<String>();
+                List<String> sequences = new ArrayList<String>();
+                long bases = 0;
+                boolean more = true;
+                while (more) {
+                    more = subjectReader.next();
+                    if (more) {
+                        ids.add(subjectReader.getID());
+                        sequences.add(subjectReader.getSequence());
+                        bases += subjectReader.getSequence().length();
+                    }
+                    if (ids.size()>=BATCH_RECORDS || bases>=BATCH_BASES || (!more && ids.size()>0)) {
+                        final List<String> batchIDs = ids;
+                        final List<String> batchSequences = sequences;
+                        inFlight.add(pool.submit(() -> {
+                                    List<String> sharers = new ArrayList<String>();
+                                    for (int i=0; i<batchIDs.size(); i++) {
+                                        if (matcher.matchesAll(batchSequences.get(i))) sharers.add(batchIDs.get(i));
+                                    }
+                                    return sharers;
+                                }));
+                        ids = new ArrayList<String>();
+                        sequences = new ArrayList<String>();
+                        bases = 0;
+                    }
+                    while (inFlight.size()>=2*threads || (!more && !inFlight.isEmpty())) {
+                        for (String subjectID : inFlight.remove().get()) System.out.println(subjectID);
+                        System.out.flush();
                     }
-                    containedInAll = containedInAll && containedInMotifGroup;
                 }
-                if (containedInAll) System.out.println(subjectID);
+            } finally {
+                pool.shutdownNow();
             }
-            
-
-
-
-
 
         } catch (Exception ex) {
             ex.printStackTrace();
@@ -0,0 +1,175 @@
+package org.ncgr.blast;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import org.biojava.nbio.core.alignment.template.SequencePair;
+import org.biojava.nbio.core.sequence.DNASequence;
+import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
+
+/**
+ * A DNA position weight matrix accumulated in memory from aligned motifs: int[length][4] counts of A, C, G and T at each position,
+ * from which the letter frequencies and information content are computed and written out in MEME or JASPAR text.
+ * Letters other than A, C, G and T (N, IUB codes, gaps) aren't counted. Methods are synchronized so that alignments may be added
+ * from several threads as they finish.
+ *
+ * @author Sam Hokin
+ */
+public class PositionWeightMatrix {
+
+    public static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+    int[][] counts;
+    int numSequences = 0;
+
+    /**
+     * Construct an empty matrix.
+     *
+     * @param length the number of positions
+     */
+    public PositionWeightMatrix(int length) {
+        counts = new int[length][4];
+    }
+
+    /**
+     * Add a sequence already aligned to the matrix positions, letter i counting at position i; letters past the end are ignored.
+     */
+    public synchronized void add(String aligned) {
+        int n = Math.min(aligned.length(), counts.length);
+        for (int i=0; i<n; i++) count(i, aligned.charAt(i));
+        numSequences++;
+    }
+
+    /**
+     * Add the query of a pairwise alignment whose target is the sequence the matrix positions follow, such as SequenceBlaster's top motif:
+     * each query letter aligned to a target letter counts at that target position; letters aligned to target gaps are ignored.
+     */
+    public synchronized void add(SequencePair<DNASequence,NucleotideCompound> pair) {
+        for (int column=1; column<=pair.getLength(); column++) {
+            if (pair.getTarget().isGap(column)) continue;
+            int position = pair.getIndexInTargetAt(column)-1;
+            if (position>=0 && position<counts.length) {
+                String base = pair.getCompoundInQueryAt(column).getBase();
+                if (base.length()==1) count(position, base.charAt(0));
+            }
+        }
+        numSequences++;
+    }
+
+    /**
+     * Return the number of positions.
+     */
+    public int getLength() {
+        return counts.length;
+    }
+
+    /**
+     * Return the number of sequences added.
+     */
+    public synchronized int getNumSequences() {
+        return numSequences;
+    }
+
+    /**
+     * Return the count of a base, indexed as in BASES, at a position.
+     */
+    public synchronized int getCount(int position, int base) {
+        return counts[position][base];
+    }
+
+    /**
+     * Return the frequency of a base, indexed as in BASES, at a position, or 0.25 if nothing was counted there.
+     */
+    public synchronized double getFrequency(int position, int base) {
+        int total = counts[position][0]+counts[position][1]+counts[position][2]+counts[position][3];
+        return total==0 ? 0.25 : (double) counts[position][base]/total;
+    }
+
+    /**
+     * Return the information content of a position in bits: 2 + the sum of p*log2(p) over the bases, against a uniform background.
+     */
+    public synchronized double getInformationContent(int position) {
+        double ic = 2.0;
+        for (int b=0; b<4; b++) {
+            double p = getFrequency(position, b);
+            if (p>0) ic += p*Math.log(p)/Math.log(2.0);
+        }
+        return ic;
+    }
+
+    /**
+     * Return the total information content of the matrix in bits.
+     */
+    public synchronized double getInformationContent() {
+        double ic = 0.0;
+        for (int i=0; i<counts.length; i++) ic += getInformationContent(i);
+        return ic;
+    }
+
+    /**
+     * Return the consensus sequence: the most frequent base at each position, or N where nothing was counted.
+     */
+    public synchronized String getConsensus() {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<counts.length; i++) {
+            int best = -1;
+            for (int b=0; b<4; b++) {
+                if (counts[i][b]>0 && (best<0 || counts[i][b]>counts[i][best])) best = b;
+            }
+            sb.append(best<0 ? 'N' : BASES[best]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write the matrix as a complete MEME motif file with one letter-probability matrix and a uniform background.
+     *
+     * @param out the output stream
+     * @param name the motif name
+     */
+    public synchronized void writeMEME(PrintStream out, String name) {
+        out.println("MEME version 4");
+        out.println();
+        out.println("ALPHABET= ACGT");
+        out.println();
+        out.println("strands: +");
+        out.println();
+        out.println("Background letter frequencies");
+        out.println("A 0.25 C 0.25 G 0.25 T 0.25");
+        out.println();
+        out.println("MOTIF "+name);
+        out.println("letter-probability matrix: alength= 4 w= "+counts.length+" nsites= "+numSequences+" E= 0");
+        for (int i=0; i<counts.length; i++) {
+            for (int b=0; b<4; b++) out.print(String.format(Locale.ROOT, " %.6f", getFrequency(i, b)));
+            out.println();
+        }
+        out.println();
+    }
+
+    /**
+     * Write the matrix as a JASPAR count matrix.
+     *
+     * @param out the output stream
+     * @param id the matrix ID
+     * @param name the motif name
+     */
+    public synchronized void writeJASPAR(PrintStream out, String id, String name) {
+        out.println(">"+id+"\t"+name);
+        for (int b=0; b<4; b++) {
+            out.print(BASES[b]+"  [");
+            for (int i=0; i<counts.length; i++) out.print(String.format(Locale.ROOT, " %4d", counts[i][b]));
+            out.println(" ]");
+        }
+    }
+
+    void count(int position, char c) {
+        switch (c) {
+        case 'A': case 'a': counts[position][0]++; break;
+        case 'C': case 'c': counts[position][1]++; break;
+        case 'G': case 'g': counts[position][2]++; break;
+        case 'T': case 't': counts[position][3]++; break;
+        default: break;
+        }
+    }
+
+}
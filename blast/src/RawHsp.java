@@ -0,0 +1,204 @@
+package org.ncgr.blast;
+
+import java.util.Arrays;
+
+/**
+ * The fields of one Hsp held as slices of a reusable char buffer, so that an HspFilter can test an Hsp before any Strings or Hsp objects exist.
+ * Numeric fields are parsed on demand; toHsp() builds the Hsp only for those that pass.
+ * A RawHsp is filled in turn with each Hsp read, so it is only valid until the next one and must not be kept or shared between threads.
+ *
+ * @author Sam Hokin
+ */
+public class RawHsp {
+
+    // field indexes, in Hsp element order
+    static final int NUM = 0;
+    static final int BIT_SCORE = 1;
+    static final int SCORE = 2;
+    static final int EVALUE = 3;
+    static final int QUERY_FROM = 4;
+    static final int QUERY_TO = 5;
+    static final int HIT_FROM = 6;
+    static final int HIT_TO = 7;
+    static final int PATTERN_FROM = 8;
+    static final int PATTERN_TO = 9;
+    static final int QUERY_FRAME = 10;
+    static final int HIT_FRAME = 11;
+    static final int IDENTITY = 12;
+    static final int POSITIVE = 13;
+    static final int GAPS = 14;
+    static final int ALIGN_LEN = 15;
+    static final int DENSITY = 16;
+    static final int QSEQ = 17;
+    static final int HSEQ = 18;
+    static final int MIDLINE = 19;
+    static final int NUM_FIELDS = 20;
+
+    char[] text = new char[1024];
+    int length = 0;
+
+    // start of each field in text, or -1 if the field is absent
+    int[] starts = new int[NUM_FIELDS];
+    int[] lengths = new int[NUM_FIELDS];
+
+    public RawHsp() {
+        clear();
+    }
+
+    /**
+     * Fill this from the String fields of an existing Hsp, copying them into the buffer.
+     */
+    public void set(Hsp hsp) {
+        clear();
+        setField(NUM, hsp.getHspNum());
+        setField(BIT_SCORE, hsp.getHspBitScore());
+        setField(SCORE, hsp.getHspScore());
+        setField(EVALUE, hsp.getHspEvalue());
+        setField(QUERY_FROM, hsp.getHspQueryFrom());
+        setField(QUERY_TO, hsp.getHspQueryTo());
+        setField(HIT_FROM, hsp.getHspHitFrom());
+        setField(HIT_TO, hsp.getHspHitTo());
+        setField(PATTERN_FROM, hsp.getHspPatternFrom());
+        setField(PATTERN_TO, hsp.getHspPatternTo());
+        setField(QUERY_FRAME, hsp.getHspQueryFrame());
+        setField(HIT_FRAME, hsp.getHspHitFrame());
+        setField(IDENTITY, hsp.getHspIdentity());
+        setField(POSITIVE, hsp.getHspPositive());
+        setField(GAPS, hsp.getHspGaps());
+        setField(ALIGN_LEN, hsp.getHspAlignLen());
+        setField(DENSITY, hsp.getHspDensity());
+        setField(QSEQ, hsp.getHspQseq());
+        setField(HSEQ, hsp.getHspHseq());
+        setField(MIDLINE, hsp.getHspMidline());
+    }
+
+    /**
+     * Return a new Hsp with the String values of the fields present.
+     */
+    public Hsp toHsp() {
+        Hsp hsp = new Hsp();
+        if (has(NUM)) hsp.setHspNum(getString(NUM));
+        if (has(BIT_SCORE)) hsp.setHspBitScore(getString(BIT_SCORE));
+        if (has(SCORE)) hsp.setHspScore(getString(SCORE));
+        if (has(EVALUE)) hsp.setHspEvalue(getString(EVALUE));
+        if (has(QUERY_FROM)) hsp.setHspQueryFrom(getString(QUERY_FROM));
+        if (has(QUERY_TO)) hsp.setHspQueryTo(getString(QUERY_TO));
+        if (has(HIT_FROM)) hsp.setHspHitFrom(getString(HIT_FROM));
+        if (has(HIT_TO)) hsp.setHspHitTo(getString(HIT_TO));
+        if (has(PATTERN_FROM)) hsp.setHspPatternFrom(getString(PATTERN_FROM));
+        if (has(PATTERN_TO)) hsp.setHspPatternTo(getString(PATTERN_TO));
+        if (has(QUERY_FRAME)) hsp.setHspQueryFrame(getString(QUERY_FRAME));
+        if (has(HIT_FRAME)) hsp.setHspHitFrame(getString(HIT_FRAME));
+        if (has(IDENTITY)) hsp.setHspIdentity(getString(IDENTITY));
+        if (has(POSITIVE)) hsp.setHspPositive(getString(POSITIVE));
+        if (has(GAPS)) hsp.setHspGaps(getString(GAPS));
+        if (has(ALIGN_LEN)) hsp.setHspAlignLen(getString(ALIGN_LEN));
+        if (has(DENSITY)) hsp.setHspDensity(getString(DENSITY));
+        if (has(QSEQ)) hsp.setHspQseq(getString(QSEQ));
+        if (has(HSEQ)) hsp.setHspHseq(getString(HSEQ));
+        if (has(MIDLINE)) hsp.setHspMidline(getString(MIDLINE));
+        return hsp;
+    }
+
+    public int getAlignLen() { return getInt(ALIGN_LEN); }
+    public int getIdentity() { return getInt(IDENTITY); }
+    public int getPositive() { return getInt(POSITIVE); }
+    public int getGaps() { return getInt(GAPS); }
+    public int getScore() { return getInt(SCORE); }
+    public int getQueryFrom() { return getInt(QUERY_FROM); }
+    public int getQueryTo() { return getInt(QUERY_TO); }
+    public int getHitFrom() { return getInt(HIT_FROM); }
+    public int getHitTo() { return getInt(HIT_TO); }
+    public double getEvalue() { return getDouble(EVALUE); }
+    public double getBitScore() { return getDouble(BIT_SCORE); }
+
+    /**
+     * Return the length of the aligned query sequence, which is also the length of the motif SequenceHit combines from it.
+     */
+    public int getSequenceLength() {
+        return lengths[QSEQ];
+    }
+
+    public char getQseq(int i) { return text[starts[QSEQ]+i]; }
+    public char getHseq(int i) { return text[starts[HSEQ]+i]; }
+
+    /**
+     * Return true if the query and hit sequences have the same C or G at some position, which is when the sequence combined from them,
+     * N at mismatches, contains C or G.
+     */
+    public boolean hasSharedCG() {
+        int q = starts[QSEQ];
+        int h = starts[HSEQ];
+        if (q<0 || h<0) return false;
+        int n = Math.min(lengths[QSEQ], lengths[HSEQ]);
+        for (int i=0; i<n; i++) {
+            char c = text[q+i];
+            if ((c=='C' || c=='G') && c==text[h+i]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return true if the given field is present.
+     */
+    boolean has(int field) {
+        return starts[field]>=0;
+    }
+
+    String getString(int field) {
+        return new String(text, starts[field], lengths[field]);
+    }
+
+    void clear() {
+        length = 0;
+        Arrays.fill(starts, -1);
+        Arrays.fill(lengths, 0);
+    }
+
+    void setField(int field, String value) {
+        if (value==null) return;
+        startField(field);
+        ensureCapacity(value.length());
+        value.getChars(0, value.length(), text, length);
+        length += value.length();
+        endField(field);
+    }
+
+    /**
+     * Start appending the given field at the end of the buffer.
+     */
+    void startField(int field) {
+        starts[field] = length;
+    }
+
+    void append(char[] chars, int start, int count) {
+        ensureCapacity(count);
+        System.arraycopy(chars, start, text, length, count);
+        length += count;
+    }
+
+    void endField(int field) {
+        lengths[field] = length-starts[field];
+    }
+
+    void ensureCapacity(int count) {
+        if (length+count>text.length) text = Arrays.copyOf(text, Math.max(2*text.length, length+count));
+    }
+
+    /**
+     * Parse an int field, surrounding whitespace allowed.
+     */
+    int getInt(int field) {
+        if (!has(field)) throw new NumberFormatException("Hsp field "+field+" is absent");
+        return DecimalParser.parseInt(text, starts[field], starts[field]+lengths[field]);
+    }
+
+    /**
+     * Parse a double field, exactly, with DecimalParser as BlastTabularReader does.
+     */
+    double getDouble(int field) {
+        if (!has(field)) throw new NumberFormatException("Hsp field "+field+" is absent");
+        return DecimalParser.parseDouble(text, starts[field], starts[field]+lengths[field]);
+    }
+
+}
@@ -1,7 +1,11 @@
 package org.ncgr.blast;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
@@ -10,8 +14,11 @@ import java.util.LinkedHashMap;
 import java.util.TreeMap;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 import java.text.DecimalFormat;
 
+
 import org.biojava.nbio.alignment.Alignments;
 import org.biojava.nbio.alignment.FractionalIdentityScorer;
 import org.biojava.nbio.alignment.FractionalIdentityInProfileScorer;
@@ -21,6 +28,7 @@ import org.biojava.nbio.alignment.SmithWaterman;
 import org.biojava.nbio.alignment.routines.AnchoredPairwiseSequenceAligner;
 import org.biojava.nbio.alignment.routines.GuanUberbacher;
 import org.biojava.nbio.alignment.template.AbstractMatrixAligner;
+import org.biojava.nbio.alignment.template.AbstractPairwiseSequenceAligner;
 import org.biojava.nbio.alignment.template.GapPenalty;
 import org.biojava.nbio.core.alignment.matrices.SubstitutionMatrixHelper;
 import org.biojava.nbio.core.alignment.template.AlignedSequence;
@@ -45,10 +53,23 @@ public class SequenceBlaster {
     static String STRAND = "plus";
     static String WORD_SIZE = "8";
     static String PERC_IDENTITY = "80";
+    static String EVALUE = "10";
     static boolean UNGAPPED = true;
+    static boolean BATCHED = true; // run the whole multi-fasta as query against itself in one blastn call, dropping self-hits
+    static boolean USE_BLASTN = true; // false to find the ungapped plus-strand hits in memory with MotifFinder instead of blastn
+    static String CACHE_DIR = null;   // directory of a BlastCache to reuse blastn results between runs, or null for none
+    static long CACHE_MAX_BYTES = 1L<<30;
+    static String HITS_FILE = null;   // file to write the culled hits to, grouped by motif in rank order, or null for none
+    static String HITS_SPILL_DIR = null; // directory to memory-map the hit table for HITS_FILE in, or null to keep it on the heap
+
+    // the culled hits, collected only when HITS_FILE is set
+    static HspTable hitTable = null;
 
     // BlastUtils.blastSequenceHits parameters
     static int MAX_MOTIF_LENGTH = 27;
+
+    // the size and content cull of addSequenceHit, applied to raw HSPs so that rejected ones are never built or combined
+    static HspFilter MOTIF_FILTER = hsp -> hsp.getSequenceLength()<=MAX_MOTIF_LENGTH && hsp.hasSharedCG();
     
     // BioJava alignment parameters
     static double MAX_DISTANCE = 0.2; // maximum distance of a motif from top-scoring motif to be used in sequence logo
@@ -79,6 +100,19 @@ public class SequenceBlaster {
         GapPenalty gapPenalty = new SimpleGapPenalty(gop, gep);
         SubstitutionMatrix<NucleotideCompound> subMatrix = SubstitutionMatrixHelper.getNuc4_4();
 
+        if (!ALIGNER.equals("AnchoredPairwiseSequenceAligner") &&
+            !ALIGNER.equals("GuanUberbacher") &&
+            !ALIGNER.equals("NeedlemanWunsch") &&
+            !ALIGNER.equals("SmithWaterman")) {
+            System.err.println("ERROR: ALIGNER must be one of AnchoredPairwiseSequenceAligner, GuanUberbacher, NeedlemanWunsch, SmithWaterman");
+            System.exit(1);
+        }
+
+        if (!USE_BLASTN && (!STRAND.equals("plus") || !UNGAPPED)) {
+            System.err.println("ERROR: MotifFinder only finds ungapped plus-strand hits, so USE_BLASTN=false requires STRAND=plus and UNGAPPED=true");
+            System.exit(1);
+        }
+
         try {
 
             // the blastn parameters without the dash
@@ -86,143 +120,164 @@ public class SequenceBlaster {
             blastParameters.put("strand", STRAND);
             blastParameters.put("word_size", WORD_SIZE);
             blastParameters.put("perc_identity", PERC_IDENTITY);
+            blastParameters.put("evalue", EVALUE);
             if (UNGAPPED) blastParameters.put("ungapped", "");
             
+            if (CACHE_DIR!=null) BlastUtils.BLAST_CACHE = new BlastCache(new File(CACHE_DIR), CACHE_MAX_BYTES);
+            if (HITS_FILE!=null) hitTable = (HITS_SPILL_DIR==null) ? new HspTable() : new HspTable(new File(HITS_SPILL_DIR));
+
             // timing
             long blastStart = System.currentTimeMillis();
 
-            // Run blast between all the sequences in the provided file, returning a TreeSet of SequenceHits summarizing the results.
-            // Uses temp storage to create the many FASTA files used in the BLAST command line.
+            // Run blast between all the sequences in the provided file, collecting the hits in a MotifIndex.
 
-            // we'll add the found hits to this map of SequenceHits
-            TreeMap<String,SequenceHits> seqHitsMap = new TreeMap<String,SequenceHits>();
-            FastaReaderHelper frh = new FastaReaderHelper();
-            FastaWriterHelper fwh = new FastaWriterHelper();
+            // we'll add the found hits to this index of motifs; it's synchronized since per-query runs merge into it from the blastn pool
+            MotifIndex motifIndex = new MotifIndex();
 
-            // pull out the individual sequences with BioJava help
-            File multiFasta = new File(fastaFilename);
-            LinkedHashMap<String,DNASequence> sequenceMap = null;
-            try {
-                sequenceMap = frh.readFastaDNASequence(multiFasta);
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                System.exit(1);
-            }
+            if (!USE_BLASTN) {
+
+                // index and search all the sequences in memory
+                LinkedHashMap<String,DNASequence> sequenceMap = FastaReaderHelper.readFastaDNASequence(new File(fastaFilename));
+                List<String> ids = new ArrayList<String>();
+                List<String> sequences = new ArrayList<String>();
+                for (DNASequence sequence : sequenceMap.values()) {
+                    ids.add(sequence.getOriginalHeader());
+                    sequences.add(sequence.getSequenceAsString());
+                }
+                MotifFinder finder = new MotifFinder(ids, sequences, Integer.parseInt(WORD_SIZE), Double.parseDouble(PERC_IDENTITY), Double.parseDouble(EVALUE));
+                finder.findHits(seqHit -> addSequenceHit(seqHit, motifIndex));
+
+            } else if (BATCHED) {
+
+                // one blastn call with the multi-fasta as both query and subject, streamed so that it's never held whole, and cached as it streams;
+                // self-hits are dropped while parsing
+                BlastUtils.streamBlastnHits(fastaFilename, fastaFilename, blastParameters, MOTIF_FILTER, "length<="+MAX_MOTIF_LENGTH+",sharedCG",
+                                            (iteration, hit) -> addSequenceHits(iteration, hit, motifIndex));
 
-            // loop through each sequence as query against the remaining as subject
-            for (DNASequence querySequence : sequenceMap.values()) {
+            } else {
+
+                // Uses temp storage to create the many FASTA files used in the BLAST command line.
+                FastaReaderHelper frh = new FastaReaderHelper();
+                FastaWriterHelper fwh = new FastaWriterHelper();
+
+                // pull out the individual sequences with BioJava help
+                File multiFasta = new File(fastaFilename);
+                LinkedHashMap<String,DNASequence> sequenceMap = null;
+                try {
+                    sequenceMap = frh.readFastaDNASequence(multiFasta);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    System.exit(1);
+                }
+
+                // loop through each sequence as query against the remaining as subject, fanning the blastn runs out across the pool
+                List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+                for (DNASequence querySequence : sequenceMap.values()) {
                 
-                // write out the query fasta
-                String queryID = querySequence.getOriginalHeader();
-                File queryFile = File.createTempFile("query", ".fasta");
-                fwh.writeSequence(queryFile, querySequence);
-                String queryFilePath = queryFile.getAbsolutePath();
+                    // write out the query fasta
+                    String queryID = querySequence.getOriginalHeader();
+                    File queryFile = File.createTempFile("query", ".fasta");
+                    fwh.writeSequence(queryFile, querySequence);
+                    String queryFilePath = queryFile.getAbsolutePath();
                 
-                // create the subject multi-fasta = all sequences but the query sequence
-                LinkedHashMap<String,DNASequence> subjectMap = new LinkedHashMap<String,DNASequence>(sequenceMap);
-                subjectMap.remove(queryID);
+                    // create the subject multi-fasta = all sequences but the query sequence
+                    LinkedHashMap<String,DNASequence> subjectMap = new LinkedHashMap<String,DNASequence>(sequenceMap);
+                    subjectMap.remove(queryID);
                 
-                // write out the subject file
-                File subjectFile = File.createTempFile("subject", ".fasta");
-                fwh.writeNucleotideSequence(subjectFile, subjectMap.values());
-                String subjectFilePath = subjectFile.getAbsolutePath();
+                    // write out the subject file
+                    File subjectFile = File.createTempFile("subject", ".fasta");
+                    fwh.writeNucleotideSequence(subjectFile, subjectMap.values());
+                    String subjectFilePath = subjectFile.getAbsolutePath();
                 
-                // now run BLAST with given parameters
-                BlastOutput blastOutput = BlastUtils.runBlastn(subjectFilePath, queryFilePath, blastParameters);
-                BlastOutputIterations iterations = blastOutput.getBlastOutputIterations();
-                if (iterations!=null) {
-                    List<Iteration> iterationList = iterations.getIteration();
-                    if (iterationList!=null) {
-                        for (Iteration iteration : iterationList) {
-                            if (iteration.getIterationMessage()==null) {
-                                List<Hit> hitList = iteration.getIterationHits().getHit();
-                                for (Hit hit : hitList) {
-                                    String hitID = hit.getHitDef();
-                                    HitHsps hsps = hit.getHitHsps();
-                                    if (hsps!=null) {
-                                        List<Hsp> hspList = hsps.getHsp();
-                                        if (hspList!=null) {
-                                            for (Hsp hsp : hspList) {
-                                                SequenceHit seqHit = new SequenceHit(queryID, hitID, hsp);
-                                                // cull motifs based on their size and content
-                                                boolean keep = true;
-                                                keep = keep && (seqHit.sequence.contains("C") || seqHit.sequence.contains("G"));
-                                                keep = keep && seqHit.sequence.length()<=MAX_MOTIF_LENGTH;
-                                                if (keep) {
-                                                    if (seqHitsMap.containsKey(seqHit.sequence)) {
-                                                        SequenceHits seqHits = seqHitsMap.get(seqHit.sequence);
-                                                        seqHits.addSequenceHit(seqHit);
-                                                    } else {
-                                                        SequenceHits seqHits = new SequenceHits(seqHit);
-                                                        seqHitsMap.put(seqHit.sequence, seqHits);
-                                                    }
-                                                }
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
+                    // now run BLAST with given parameters, merging the hits into motifIndex when it's done
+                    futures.add(BlastUtils.runBlastnAsync(subjectFilePath, queryFilePath, blastParameters)
+                                .thenAccept(blastOutput -> addSequenceHits(blastOutput, queryID, motifIndex)));
                 }
+
+                // wait for them all; join rethrows the first failure
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
             }
             
-            // load the collected SequenceHits into a sorted set
-            TreeSet<SequenceHits> seqHitsSet = new TreeSet<SequenceHits>(seqHitsMap.values());
+            // rank the collected motifs by score
+            int[] rankedMotifs = motifIndex.rank();
             
             // timing
             long blastEnd = System.currentTimeMillis();
 
+            if (hitTable!=null) {
+                writeHits(hitTable, motifIndex, rankedMotifs, new File(HITS_FILE));
+                hitTable.close();
+            }
+
             // now scan through the motifs, doing pairwise alignment with the top one to create a list for logo creation
             long pairwiseStart = System.currentTimeMillis();
-            int count = 0;
-            boolean first = true;
-            DNASequence topMotif = null;
             List<DNASequence> logoMotifs = new ArrayList<DNASequence>();
-            for (SequenceHits seqHits : seqHitsSet.descendingSet()) {
-                count++;
-                if (first) {
-                    first = false;
-                    // save the top motif for pairwise alignments
-                    topMotif = new DNASequence(seqHits.sequence);
-                    logoMotifs.add(topMotif);
-                    System.out.print(count+"."+seqHits.sequence+"\t["+seqHits.score+"]["+seqHits.uniqueIDs.size()+"]");
-                    System.out.println("\tscore\tsimilarity\tdistance");
-                } else {
-                    // do a pairwise alignment with topMotif and add to logo list if close enough
-                    DNASequence thisMotif = new DNASequence(seqHits.sequence);
-                    // choose the desired pairwise aligner
-                    AbstractMatrixAligner<DNASequence,NucleotideCompound> aligner = null;
-                    if (ALIGNER.equals("AnchoredPairwiseSequenceAligner")) {
-                        aligner = new AnchoredPairwiseSequenceAligner<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else if (ALIGNER.equals("GuanUberbacher")) {
-                        aligner = new GuanUberbacher<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else if (ALIGNER.equals("NeedlemanWunsch")) {
-                        aligner = new NeedlemanWunsch<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else if (ALIGNER.equals("SmithWaterman")) {
-                        aligner = new SmithWaterman<DNASequence,NucleotideCompound>(thisMotif, topMotif, gapPenalty, subMatrix);
-                    } else {
-                        System.err.println("ERROR: ALIGNER must be one of AnchoredPairwiseSequenceAligner, GuanUberbacher, NeedlemanWunsch, SmithWaterman");
-                        System.exit(1);
-                    }
-                    double score = aligner.getScore();
-                    double distance = aligner.getDistance();
-                    double similarity = aligner.getSimilarity();
-                    System.out.print(count+"."+seqHits.sequence+"\t["+seqHits.score+"]["+seqHits.uniqueIDs.size()+"]");
-                    System.out.print("\t"+rnd.format(score)+"\t"+dec.format(similarity)+"\t"+dec.format(distance));
-                    if (distance<maxDistance) {
-                        logoMotifs.add(thisMotif);
-                        System.out.println("\t*");
+            PositionWeightMatrix pwm = null;
+            if (rankedMotifs.length>0) {
+
+                // save the top motif for pairwise alignments
+                DNASequence topMotif = new DNASequence(motifIndex.getMotif(rankedMotifs[0]));
+                logoMotifs.add(topMotif);
+
+                // accumulate the logo motifs' bases at the top motif's positions as their alignments finish
+                pwm = new PositionWeightMatrix(topMotif.getLength());
+                pwm.add(topMotif.getSequenceAsString());
+                final PositionWeightMatrix logoPWM = pwm;
+                final double logoDistance = maxDistance;
+
+                // align the rest against it on the fork-join pool, each worker thread reusing its own aligner; results land by rank
+                final int n = rankedMotifs.length;
+                final DNASequence[] motifs = new DNASequence[n];
+                final double[] scores = new double[n];
+                final double[] similarities = new double[n];
+                final double[] distances = new double[n];
+                for (int i=1; i<n; i++) motifs[i] = new DNASequence(motifIndex.getMotif(rankedMotifs[i]));
+                final ThreadLocal<AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound>> aligners =
+                    ThreadLocal.withInitial(() -> newAligner(topMotif, gapPenalty, subMatrix));
+                IntStream.range(1, n).parallel().forEach(i -> {
+                        AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound> aligner = aligners.get();
+                        aligner.setQuery(motifs[i]);
+                        scores[i] = aligner.getScore();
+                        similarities[i] = aligner.getSimilarity();
+                        distances[i] = aligner.getDistance();
+                        if (distances[i]<logoDistance) logoPWM.add(aligner.getPair());
+                    });
+
+                // output in rank order
+                for (int i=0; i<n; i++) {
+                    int m = rankedMotifs[i];
+                    System.out.print((i+1)+"."+motifIndex.getMotif(m)+"\t["+motifIndex.getScore(m)+"]["+motifIndex.getIDCount(m)+"]");
+                    if (i==0) {
+                        System.out.println("\tscore\tsimilarity\tdistance");
                     } else {
-                        System.out.println();
+                        System.out.print("\t"+rnd.format(scores[i])+"\t"+dec.format(similarities[i])+"\t"+dec.format(distances[i]));
+                        if (distances[i]<maxDistance) {
+                            logoMotifs.add(motifs[i]);
+                            System.out.println("\t*");
+                        } else {
+                            System.out.println();
+                        }
                     }
                 }
+
             }
 
             long pairwiseEnd = System.currentTimeMillis();
             System.out.println();
             System.out.println("------- "+logoMotifs.size()+" motifs gathered for sequence logo -----");
 
+            if (pwm!=null) {
+                // write the logo motifs' position weight matrix for MEME-suite and JASPAR tools
+                System.out.println(pwm.getConsensus()+"\tinformation content "+dec.format(pwm.getInformationContent())+" bits");
+                try (PrintStream out = new PrintStream(new File("/tmp/alignment.meme"))) {
+                    pwm.writeMEME(out, pwm.getConsensus());
+                }
+                try (PrintStream out = new PrintStream(new File("/tmp/alignment.jaspar"))) {
+                    pwm.writeJASPAR(out, "SB0001.1", pwm.getConsensus());
+                }
+            }
+
             long multiStart = 0;
             long multiEnd = 0;
 
@@ -250,6 +305,9 @@ public class SequenceBlaster {
             // timing output
             System.out.println();
             System.out.println("BLAST runs took "+(blastEnd-blastStart)+" ms.");
+            if (BlastUtils.BLAST_CACHE!=null) {
+                System.out.println("BLAST cache: "+BlastUtils.BLAST_CACHE.getHitCount()+" hits, "+BlastUtils.BLAST_CACHE.getMissCount()+" misses.");
+            }
             System.out.println("Pairwise alignments with top motif took "+(pairwiseEnd-pairwiseStart)+" ms.");
             if (multiStart>0) System.out.println("Multiple sequence alignment took "+(multiEnd-multiStart)+" ms.");
 
@@ -258,8 +316,151 @@ public class SequenceBlaster {
             System.exit(1);
         } finally {
             ConcurrencyTools.shutdown();  
+            BlastUtils.shutdownBlastnExecutor();
         }            
 
     }
     
+    /**
+     * Return a new pairwise aligner of type ALIGNER with the given target, to be reused for many queries via setQuery().
+     * The gap penalty and substitution matrix are only read during alignment, so they may be shared between per-thread aligners.
+     *
+     * @param target the sequence every query is aligned against
+     * @param gapPenalty the gap penalty
+     * @param subMatrix the substitution matrix
+     * @return the aligner, without a query
+     */
+    static AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound> newAligner(DNASequence target, GapPenalty gapPenalty, SubstitutionMatrix<NucleotideCompound> subMatrix) {
+        AbstractPairwiseSequenceAligner<DNASequence,NucleotideCompound> aligner = null;
+        if (ALIGNER.equals("AnchoredPairwiseSequenceAligner")) {
+            aligner = new AnchoredPairwiseSequenceAligner<DNASequence,NucleotideCompound>();
+        } else if (ALIGNER.equals("GuanUberbacher")) {
+            aligner = new GuanUberbacher<DNASequence,NucleotideCompound>();
+        } else if (ALIGNER.equals("NeedlemanWunsch")) {
+            aligner = new NeedlemanWunsch<DNASequence,NucleotideCompound>();
+        } else {
+            aligner = new SmithWaterman<DNASequence,NucleotideCompound>();
+        }
+        aligner.setGapPenalty(gapPenalty);
+        aligner.setSubstitutionMatrix(subMatrix);
+        aligner.setTarget(target);
+        return aligner;
+    }
+
+    /**
+     * Add a streamed Hit from an all-vs-all run to the given MotifIndex, taking the query from its Iteration's query def and dropping
+     * hits of a sequence against itself.
+     *
+     * @param iteration the Iteration of the hit
+     * @param hit the Hit, with its HSPs
+     * @param motifIndex the MotifIndex to add to
+     */
+    static void addSequenceHits(Iteration iteration, Hit hit, MotifIndex motifIndex) {
+        String queryID = iteration.getIterationQueryDef();
+        if (hit.getHitDef().equals(queryID)) return; // self-hit
+        addSequenceHits(queryID, hit, motifIndex);
+    }
+
+    /**
+     * Add the hits in a BlastOutput to the given MotifIndex.
+     * If queryID is null, the query is taken from each Iteration's query def and hits of a sequence against itself are dropped.
+     *
+     * @param blastOutput the BlastOutput supplying hits
+     * @param queryID the single query ID for all hits, or null to take it from each Iteration
+     * @param motifIndex the MotifIndex to add to
+     */
+    static void addSequenceHits(BlastOutput blastOutput, String queryID, MotifIndex motifIndex) {
+        BlastOutputIterations iterations = blastOutput.getBlastOutputIterations();
+        if (iterations==null || iterations.getIteration()==null) return;
+        RawHsp raw = new RawHsp();
+        for (Iteration iteration : iterations.getIteration()) {
+            if (iteration.getIterationMessage()!=null || iteration.getIterationHits()==null) continue;
+            String thisQueryID = queryID;
+            if (thisQueryID==null) thisQueryID = iteration.getIterationQueryDef();
+            for (Hit hit : iteration.getIterationHits().getHit()) {
+                if (queryID==null && hit.getHitDef().equals(thisQueryID)) continue; // self-hit
+                if (hit.getHitHsps()==null) continue;
+                for (Hsp hsp : hit.getHitHsps().getHsp()) {
+                    // cull before combining
+                    raw.set(hsp);
+                    if (MOTIF_FILTER.accept(raw)) addSequenceHit(new SequenceHit(thisQueryID, hit.getHitDef(), hsp), motifIndex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the HSPs of a single Hit to the given MotifIndex, culling motifs on size and content.
+     * Hits from a reader with MOTIF_FILTER set have already been culled.
+     *
+     * @param queryID the query ID
+     * @param hit the Hit, with its HSPs
+     * @param motifIndex the MotifIndex to add to
+     */
+    static void addSequenceHits(String queryID, Hit hit, MotifIndex motifIndex) {
+        if (hit.getHitHsps()==null) return;
+        String hitID = hit.getHitDef();
+        for (Hsp hsp : hit.getHitHsps().getHsp()) {
+            addSequenceHit(new SequenceHit(queryID, hitID, hsp), motifIndex);
+        }
+    }
+
+    /**
+     * Add a SequenceHit to the given MotifIndex if its motif passes the size and content cull.
+     *
+     * @param seqHit the SequenceHit
+     * @param motifIndex the MotifIndex to add to
+     */
+    static void addSequenceHit(SequenceHit seqHit, MotifIndex motifIndex) {
+        // cull motifs based on their size and content
+        boolean keep = true;
+        keep = keep && (seqHit.sequence.contains("C") || seqHit.sequence.contains("G"));
+        keep = keep && seqHit.sequence.length()<=MAX_MOTIF_LENGTH;
+        if (keep) {
+            motifIndex.add(seqHit);
+            if (hitTable!=null) recordHit(seqHit);
+        }
+    }
+
+    /**
+     * Add a culled SequenceHit to hitTable; hits may arrive from several threads.
+     *
+     * @param seqHit the SequenceHit
+     */
+    static void recordHit(SequenceHit seqHit) {
+        synchronized (hitTable) {
+            try {
+                hitTable.add(seqHit.queryID, seqHit.hitID, seqHit.sequence, seqHit.hsp);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Write the hits in an HspTable, grouped by motif in rank order and by ascending evalue within each motif, as tab-separated
+     * rank, motif, query ID, hit ID, query from, query to, hit from, hit to, evalue and bitscore.
+     *
+     * @param table the HspTable of culled hits
+     * @param motifIndex the MotifIndex holding the same motifs
+     * @param rankedMotifs the motif indexes in rank order
+     * @param file the file to write
+     */
+    static void writeHits(HspTable table, MotifIndex motifIndex, int[] rankedMotifs, File file) throws IOException {
+        table.sort((t, row1, row2) -> Float.compare(t.getEvalue(row1), t.getEvalue(row2)));
+        int[] offsets = table.groupByMotif();
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            for (int i=0; i<rankedMotifs.length; i++) {
+                String motif = motifIndex.getMotif(rankedMotifs[i]);
+                int m = table.getMotifs().indexOf(motif);
+                if (m<0) continue;
+                for (int row=offsets[m]; row<offsets[m+1]; row++) {
+                    out.println((i+1)+"\t"+motif+"\t"+table.getQueryID(row)+"\t"+table.getHitID(row)+"\t"+
+                                table.getQueryFrom(row)+"\t"+table.getQueryTo(row)+"\t"+table.getHitFrom(row)+"\t"+table.getHitTo(row)+"\t"+
+                                table.getEvalue(row)+"\t"+table.getBitscore(row));
+                }
+            }
+        }
+    }
+
 }
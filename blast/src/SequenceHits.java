@@ -90,10 +90,7 @@ public class SequenceHits implements Comparable {
      * Return true if this instance contains a SequenceHit with either queryID or hitID matching the given ID
      */
     public boolean containsID(String id) {
-        for (SequenceHit seqHit : sequenceHits) {
-            if (seqHit.queryID.equals(id) || seqHit.hitID.equals(id)) return true;
-        }
-        return false;
+        return uniqueIDs.contains(id);
     }
 
 }
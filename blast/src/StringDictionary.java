@@ -0,0 +1,52 @@
+package org.ncgr.blast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A dictionary which assigns each distinct String a dense int index in order of first appearance, so that tables can store ints rather than Strings.
+ *
+ * @author Sam Hokin
+ */
+public class StringDictionary {
+
+    HashMap<String,Integer> indexes = new HashMap<String,Integer>();
+    List<String> strings = new ArrayList<String>();
+
+    /**
+     * Return the index of the given String, adding it if it isn't already present.
+     */
+    public int intern(String s) {
+        Integer index = indexes.get(s);
+        if (index==null) {
+            index = strings.size();
+            strings.add(s);
+            indexes.put(s, index);
+        }
+        return index;
+    }
+
+    /**
+     * Return the index of the given String, or -1 if it isn't present.
+     */
+    public int indexOf(String s) {
+        Integer index = indexes.get(s);
+        return index==null ? -1 : index;
+    }
+
+    /**
+     * Return the String with the given index.
+     */
+    public String get(int index) {
+        return strings.get(index);
+    }
+
+    /**
+     * Return the number of distinct Strings.
+     */
+    public int size() {
+        return strings.size();
+    }
+
+}
@@ -0,0 +1,240 @@
+package org.ncgr.blast;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip tests of BlastArchive: written hits are read back by query def with their numbers and sequences.
+ *
+ * @author Sam Hokin
+ */
+public class BlastArchiveTest {
+
+    File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("BlastArchiveTest", ".bar");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    /**
+     * Assert that an archived hit matches the original in every kept field, numbers compared by value since they are stored as ints and doubles.
+     */
+    static void assertSameHit(Hit expected, Hit actual) {
+        assertEquals(Integer.parseInt(expected.getHitNum()), Integer.parseInt(actual.getHitNum()));
+        assertEquals(expected.getHitId(), actual.getHitId());
+        assertEquals(expected.getHitDef(), actual.getHitDef());
+        assertEquals(expected.getHitAccession(), actual.getHitAccession());
+        assertEquals(Integer.parseInt(expected.getHitLen()), Integer.parseInt(actual.getHitLen()));
+        List<Hsp> e = expected.getHitHsps().getHsp();
+        List<Hsp> a = actual.getHitHsps().getHsp();
+        assertEquals(e.size(), a.size());
+        for (int i=0; i<e.size(); i++) {
+            Hsp x = e.get(i);
+            Hsp y = a.get(i);
+            assertEquals(Integer.parseInt(x.getHspNum()), Integer.parseInt(y.getHspNum()));
+            assertEquals(Integer.parseInt(x.getHspScore()), Integer.parseInt(y.getHspScore()));
+            assertEquals(Double.parseDouble(x.getHspBitScore()), Double.parseDouble(y.getHspBitScore()), 0.0);
+            assertEquals(Double.parseDouble(x.getHspEvalue()), Double.parseDouble(y.getHspEvalue()), 0.0);
+            assertEquals(Integer.parseInt(x.getHspQueryFrom()), Integer.parseInt(y.getHspQueryFrom()));
+            assertEquals(Integer.parseInt(x.getHspQueryTo()), Integer.parseInt(y.getHspQueryTo()));
+            assertEquals(Integer.parseInt(x.getHspHitFrom()), Integer.parseInt(y.getHspHitFrom()));
+            assertEquals(Integer.parseInt(x.getHspHitTo()), Integer.parseInt(y.getHspHitTo()));
+            assertEquals(Integer.parseInt(x.getHspQueryFrame()), Integer.parseInt(y.getHspQueryFrame()));
+            assertEquals(Integer.parseInt(x.getHspHitFrame()), Integer.parseInt(y.getHspHitFrame()));
+            assertEquals(Integer.parseInt(x.getHspIdentity()), Integer.parseInt(y.getHspIdentity()));
+            assertEquals(Integer.parseInt(x.getHspPositive()), Integer.parseInt(y.getHspPositive()));
+            assertEquals(Integer.parseInt(x.getHspGaps()), Integer.parseInt(y.getHspGaps()));
+            assertEquals(Integer.parseInt(x.getHspAlignLen()), Integer.parseInt(y.getHspAlignLen()));
+            assertEquals(x.getHspQseq(), y.getHspQseq());
+            assertEquals(x.getHspHseq(), y.getHspHseq());
+            assertEquals(x.getHspMidline(), y.getHspMidline());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        BlastOutput blastOutput = BlastTestFixtures.randomBlastOutput(new Random(18), 30, 6);
+        BlastArchive.write(blastOutput, file);
+        int numHits = 0;
+        int numHsps = 0;
+        int numQueries = 0;
+        try (BlastArchive archive = new BlastArchive(file)) {
+            for (Iteration iteration : blastOutput.getBlastOutputIterations().getIteration()) {
+                List<Hit> hits = archive.getHits(iteration.getIterationQueryDef());
+                if (iteration.getIterationHits()==null) {
+                    // iterations without hits aren't archived
+                    assertTrue(hits.isEmpty());
+                    assertEquals(-1, archive.findQuery(iteration.getIterationQueryDef()));
+                    continue;
+                }
+                numQueries++;
+                int q = archive.findQuery(iteration.getIterationQueryDef());
+                assertEquals(iteration.getIterationQueryDef(), archive.getQueryDef(q));
+                assertEquals(iteration.getIterationQueryID(), archive.getQueryID(q));
+                assertEquals(Integer.parseInt(iteration.getIterationQueryLen()), archive.getQueryLen(q));
+                List<Hit> expected = iteration.getIterationHits().getHit();
+                assertEquals(expected.size(), hits.size());
+                for (int h=0; h<hits.size(); h++) {
+                    assertSameHit(expected.get(h), hits.get(h));
+                    numHsps += expected.get(h).getHitHsps().getHsp().size();
+                }
+                numHits += hits.size();
+            }
+            assertEquals(numQueries, archive.getNumQueries());
+            assertEquals(numHits, archive.getNumHits());
+            assertEquals(numHsps, archive.getNumHsps());
+            assertEquals(-1, archive.findQuery("not a query"));
+            assertTrue(archive.getHits("not a query").isEmpty());
+        }
+    }
+
+    @Test
+    public void testIterationsMergedByQueryDef() throws IOException {
+        Random random = new Random(5);
+        Iteration first = new Iteration();
+        first.setIterationQueryDef("query");
+        first.setIterationQueryID("Query_1");
+        first.setIterationQueryLen("100");
+        Iteration second = new Iteration();
+        second.setIterationQueryDef("query");
+        second.setIterationQueryID("Query_1");
+        second.setIterationQueryLen("100");
+        Iteration other = new Iteration();
+        other.setIterationQueryDef("another");
+        other.setIterationQueryID("Query_2");
+        other.setIterationQueryLen("200");
+        List<Hit> expected = new ArrayList<Hit>();
+        try (BlastArchive.Writer writer = new BlastArchive.Writer()) {
+            for (int i=0; i<3; i++) {
+                Hit hit = BlastTestFixtures.randomHit(random, i+1, i);
+                writer.add(first, hit);
+                expected.add(hit);
+            }
+            writer.add(other, BlastTestFixtures.randomHit(random, 1, 9));
+            for (int i=3; i<5; i++) {
+                Hit hit = BlastTestFixtures.randomHit(random, i+1, i);
+                writer.add(second, hit);
+                expected.add(hit);
+            }
+            writer.write(file);
+        }
+        try (BlastArchive archive = new BlastArchive(file)) {
+            assertEquals(2, archive.getNumQueries());
+            // the query table is sorted by def
+            assertEquals("another", archive.getQueryDef(0));
+            assertEquals("query", archive.getQueryDef(1));
+            List<Hit> hits = archive.getHits("query");
+            assertEquals(5, hits.size());
+            for (int h=0; h<5; h++) assertSameHit(expected.get(h), hits.get(h));
+        }
+    }
+
+    @Test
+    public void testWriterDeletesSequenceFile() throws IOException {
+        BlastArchive.Writer writer = new BlastArchive.Writer();
+        File sequenceFile = writer.sequenceFile;
+        assertTrue(sequenceFile.exists());
+        writer.close();
+        assertFalse(sequenceFile.exists());
+    }
+
+    @Test(expected=IOException.class)
+    public void testNullQueryDef() throws IOException {
+        Iteration iteration = new Iteration();
+        iteration.setIterationIterNum("1");
+        try (BlastArchive.Writer writer = new BlastArchive.Writer()) {
+            writer.add(iteration, BlastTestFixtures.randomHit(new Random(1), 1, 1));
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testNotAnArchive() throws IOException {
+        Files.write(file.toPath(), new byte[100]);
+        new BlastArchive(file).close();
+    }
+
+    @Test
+    public void testConvert() throws IOException, XMLStreamException {
+        File xml = File.createTempFile("BlastArchiveTest", ".xml");
+        try {
+            String contents =
+                "<?xml version=\"1.0\"?>\n" +
+                "<BlastOutput>\n" +
+                "  <BlastOutput_program>blastn</BlastOutput_program>\n" +
+                "  <BlastOutput_iterations>\n" +
+                "    <Iteration>\n" +
+                "      <Iteration_iter-num>1</Iteration_iter-num>\n" +
+                "      <Iteration_query-ID>Query_1</Iteration_query-ID>\n" +
+                "      <Iteration_query-def>q1</Iteration_query-def>\n" +
+                "      <Iteration_query-len>50</Iteration_query-len>\n" +
+                "      <Iteration_hits>\n" +
+                "        <Hit>\n" +
+                "          <Hit_num>1</Hit_num>\n" +
+                "          <Hit_id>Subject_1</Hit_id>\n" +
+                "          <Hit_def>s1</Hit_def>\n" +
+                "          <Hit_accession>Subject_1</Hit_accession>\n" +
+                "          <Hit_len>60</Hit_len>\n" +
+                "          <Hit_hsps>\n" +
+                "            <Hsp>\n" +
+                "              <Hsp_num>1</Hsp_num>\n" +
+                "              <Hsp_bit-score>16.3561</Hsp_bit-score>\n" +
+                "              <Hsp_score>8</Hsp_score>\n" +
+                "              <Hsp_evalue>1e-05</Hsp_evalue>\n" +
+                "              <Hsp_query-from>3</Hsp_query-from>\n" +
+                "              <Hsp_query-to>10</Hsp_query-to>\n" +
+                "              <Hsp_hit-from>20</Hsp_hit-from>\n" +
+                "              <Hsp_hit-to>27</Hsp_hit-to>\n" +
+                "              <Hsp_query-frame>1</Hsp_query-frame>\n" +
+                "              <Hsp_hit-frame>1</Hsp_hit-frame>\n" +
+                "              <Hsp_identity>8</Hsp_identity>\n" +
+                "              <Hsp_positive>8</Hsp_positive>\n" +
+                "              <Hsp_gaps>0</Hsp_gaps>\n" +
+                "              <Hsp_align-len>8</Hsp_align-len>\n" +
+                "              <Hsp_qseq>ACGTACGT</Hsp_qseq>\n" +
+                "              <Hsp_hseq>ACGTACGT</Hsp_hseq>\n" +
+                "              <Hsp_midline>||||||||</Hsp_midline>\n" +
+                "            </Hsp>\n" +
+                "          </Hit_hsps>\n" +
+                "        </Hit>\n" +
+                "      </Iteration_hits>\n" +
+                "    </Iteration>\n" +
+                "  </BlastOutput_iterations>\n" +
+                "</BlastOutput>\n";
+            Files.write(xml.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+            BlastArchive.convert(Arrays.asList(xml.getPath()), file);
+        } finally {
+            xml.delete();
+        }
+        try (BlastArchive archive = new BlastArchive(file)) {
+            List<Hit> hits = archive.getHits("q1");
+            assertEquals(1, hits.size());
+            Hsp hsp = hits.get(0).getHitHsps().getHsp().get(0);
+            assertEquals("1.0E-5", hsp.getHspEvalue());
+            assertEquals("ACGTACGT", hsp.getHspQseq());
+            assertEquals("||||||||", hsp.getHspMidline());
+            assertEquals(20, archive.getHspHitFrom(0));
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package org.ncgr.blast;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests BlastCache entries, hit streams, keys and eviction in a temporary directory.
+ *
+ * @author Sam Hokin
+ */
+public class BlastCacheTest {
+
+    File dir;
+
+    @Before
+    public void createDir() throws IOException {
+        dir = Files.createTempDirectory("BlastCacheTest").toFile();
+    }
+
+    @After
+    public void deleteDir() {
+        for (File file : dir.listFiles()) file.delete();
+        dir.delete();
+    }
+
+    /**
+     * Return a key of the form BlastCache.key() returns, the hex digits of a SHA-256.
+     */
+    static String key(char c) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<64; i++) sb.append(c);
+        return sb.toString();
+    }
+
+    File writeFile(String name, String contents) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testPutGet() throws IOException {
+        BlastCache cache = new BlastCache(dir, 1L<<30);
+        BlastOutput blastOutput = BlastTestFixtures.randomBlastOutput(new Random(1), 5, 4);
+        assertNull(cache.get(key('e')));
+        cache.put(key('e'), blastOutput);
+        BlastTestFixtures.assertSameFields("BlastOutput", blastOutput, cache.get(key('e')));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        // a new instance picks up the entries on disk
+        BlastTestFixtures.assertSameFields("BlastOutput", blastOutput, new BlastCache(dir, 1L<<30).get(key('e')));
+    }
+
+    @Test
+    public void testHitStreamRoundTrip() throws IOException {
+        BlastCache cache = new BlastCache(dir, 1L<<30);
+        BlastOutput blastOutput = BlastTestFixtures.randomBlastOutput(new Random(2), 8, 4);
+        List<Iteration> iterations = new ArrayList<Iteration>();
+        List<Hit> hits = new ArrayList<Hit>();
+        try (BlastCache.HitWriter writer = cache.putHits(key('e'))) {
+            for (Iteration iteration : blastOutput.getBlastOutputIterations().getIteration()) {
+                if (iteration.getIterationHits()==null) continue;
+                // the stream is written with iterations stripped of their hits, as BlastXmlStreamReader supplies them
+                Iteration header = copyWithoutHits(iteration);
+                for (Hit hit : iteration.getIterationHits().getHit()) {
+                    writer.add(header, hit);
+                    iterations.add(header);
+                    hits.add(hit);
+                }
+            }
+            writer.commit();
+        }
+        final List<Iteration> replayedIterations = new ArrayList<Iteration>();
+        final List<Hit> replayedHits = new ArrayList<Hit>();
+        assertTrue(cache.getHits(key('e'), (iteration, hit) -> {
+                    replayedIterations.add(iteration);
+                    replayedHits.add(hit);
+                }));
+        assertEquals(hits.size(), replayedHits.size());
+        for (int i=0; i<hits.size(); i++) {
+            BlastTestFixtures.assertSameFields("Iteration", iterations.get(i), replayedIterations.get(i));
+            BlastTestFixtures.assertSameFields("Hit", hits.get(i), replayedHits.get(i));
+            // hits of one iteration share one replayed Iteration
+            if (i>0 && iterations.get(i)==iterations.get(i-1)) assertSame(replayedIterations.get(i-1), replayedIterations.get(i));
+        }
+        assertFalse(cache.getHits(key('f'), (iteration, hit) -> fail()));
+    }
+
+    static Iteration copyWithoutHits(Iteration iteration) {
+        Iteration copy = new Iteration();
+        copy.setIterationIterNum(iteration.getIterationIterNum());
+        copy.setIterationQueryID(iteration.getIterationQueryID());
+        copy.setIterationQueryDef(iteration.getIterationQueryDef());
+        copy.setIterationQueryLen(iteration.getIterationQueryLen());
+        copy.setIterationStat(iteration.getIterationStat());
+        return copy;
+    }
+
+    @Test
+    public void testUncommittedStreamDiscarded() throws IOException {
+        BlastCache cache = new BlastCache(dir, 1L<<30);
+        BlastOutput blastOutput = BlastTestFixtures.randomBlastOutput(new Random(3), 3, 4);
+        Iteration iteration = blastOutput.getBlastOutputIterations().getIteration().get(0);
+        try (BlastCache.HitWriter writer = cache.putHits(key('e'))) {
+            writer.add(copyWithoutHits(iteration), BlastTestFixtures.randomHit(new Random(3), 1, 1));
+        }
+        assertEquals(0, cache.size());
+        assertEquals(0, dir.listFiles().length);
+        assertFalse(cache.getHits(key('e'), (i, hit) -> fail()));
+    }
+
+    @Test
+    public void testKey() throws IOException {
+        BlastCache cache = new BlastCache(dir, 1L<<30);
+        File query = writeFile("query.fa", ">q\nACGTACGT\n");
+        File subject = writeFile("subject.fa", ">s\nTTGACGTA\n");
+        File copy = writeFile("copy.fa", ">q\nACGTACGT\n");
+        Map<String,String> parameters = new HashMap<String,String>();
+        parameters.put("word_size", "8");
+        parameters.put("ungapped", "");
+        String key = cache.key(subject.getPath(), query.getPath(), parameters);
+        assertEquals(64, key.length());
+        // contents, not names, and parameters without dashes or the ones BlastUtils sets
+        assertEquals(key, cache.key(subject.getPath(), copy.getPath(), parameters));
+        Map<String,String> dashed = new HashMap<String,String>();
+        dashed.put("-word_size", "8");
+        dashed.put("-ungapped", null);
+        dashed.put("outfmt", "5");
+        dashed.put("out", "/tmp/x.xml");
+        assertEquals(key, cache.key(subject.getPath(), query.getPath(), dashed));
+        // swapping query and subject, or changing a parameter, is a different run
+        assertNotEquals(key, cache.key(query.getPath(), subject.getPath(), parameters));
+        parameters.put("word_size", "7");
+        assertNotEquals(key, cache.key(subject.getPath(), query.getPath(), parameters));
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        BlastOutput blastOutput = BlastTestFixtures.randomBlastOutput(new Random(4), 20, 4);
+        BlastCache cache = new BlastCache(dir, 1L<<30);
+        cache.put(key('a'), blastOutput);
+        long entryBytes = cache.getTotalBytes();
+        // room for two entries
+        cache = new BlastCache(dir, entryBytes*2+entryBytes/2);
+        cache.put(key('b'), blastOutput);
+        assertNotNull(cache.get(key('a'))); // now b is the least recently used
+        cache.put(key('c'), blastOutput);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(key('b')));
+        assertNotNull(cache.get(key('a')));
+        assertNotNull(cache.get(key('c')));
+        assertTrue(cache.getTotalBytes()<=entryBytes*2+entryBytes/2);
+        assertFalse(new File(dir, key('b')+BlastCache.SUFFIX).exists());
+    }
+
+}
@@ -0,0 +1,79 @@
+package org.ncgr.blast;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Round-trip tests of BlastOutputCodec.
+ *
+ * @author Sam Hokin
+ */
+public class BlastOutputCodecTest {
+
+    static BlastOutput roundTrip(BlastOutput blastOutput) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            BlastOutputCodec.write(blastOutput, out);
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            BlastOutput decoded = BlastOutputCodec.read(in);
+            assertEquals("trailing bytes", -1, in.read());
+            return decoded;
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        Random random = new Random(13);
+        for (int t=0; t<20; t++) {
+            BlastOutput blastOutput = BlastTestFixtures.randomBlastOutput(random, 1+random.nextInt(10), 5);
+            BlastTestFixtures.assertSameFields("BlastOutput", blastOutput, roundTrip(blastOutput));
+        }
+    }
+
+    @Test
+    public void testEmptyAndNullFields() throws IOException {
+        BlastOutput blastOutput = new BlastOutput();
+        blastOutput.setBlastOutputProgram("");
+        BlastOutput decoded = roundTrip(blastOutput);
+        BlastTestFixtures.assertSameFields("BlastOutput", blastOutput, decoded);
+        assertEquals("", decoded.getBlastOutputProgram());
+        assertNull(decoded.getBlastOutputVersion());
+        assertNull(decoded.getBlastOutputIterations());
+    }
+
+    @Test
+    public void testIterationWithoutHits() throws IOException {
+        Iteration iteration = new Iteration();
+        iteration.setIterationIterNum("1");
+        iteration.setIterationMessage("No hits found");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        BlastOutputCodec.writeIteration(new DataOutputStream(bytes), iteration);
+        Iteration decoded = BlastOutputCodec.readIteration(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        BlastTestFixtures.assertSameFields("Iteration", iteration, decoded);
+        assertNull(decoded.getIterationHits());
+    }
+
+    @Test
+    public void testVarInt() throws IOException {
+        int[] values = {0, 1, 127, 128, 16383, 16384, 1<<21, Integer.MAX_VALUE};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values) BlastOutputCodec.writeVarInt(out, value);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for (int value : values) assertEquals(value, BlastOutputCodec.readVarInt(in));
+    }
+
+    @Test(expected=IOException.class)
+    public void testBadMagic() throws IOException {
+        BlastOutputCodec.read(new DataInputStream(new ByteArrayInputStream(new byte[] {'<', '?', 'x', 'm', 'l'})));
+    }
+
+}
@@ -0,0 +1,158 @@
+package org.ncgr.blast;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random BlastOutputs for the codec tests, and a field-by-field comparison of the JAXB classes, which don't implement equals.
+ *
+ * @author Sam Hokin
+ */
+public class BlastTestFixtures {
+
+    static final String BASES = "ACGT";
+
+    /**
+     * Return a BlastOutput with every field set, some of them randomly null, with numbers in blastn's own formats.
+     */
+    static BlastOutput randomBlastOutput(Random random, int numIterations, int maxHits) {
+        BlastOutput blastOutput = new BlastOutput();
+        blastOutput.setBlastOutputProgram("blastn");
+        blastOutput.setBlastOutputVersion("BLASTN 2.7.1+");
+        blastOutput.setBlastOutputReference("Zheng Zhang et al. (2000), \"A greedy algorithm for aligning DNA sequences\"");
+        blastOutput.setBlastOutputDb(maybe(random, "db"));
+        blastOutput.setBlastOutputQueryID("Query_1");
+        blastOutput.setBlastOutputQueryDef("query 0");
+        blastOutput.setBlastOutputQueryLen("1000");
+        blastOutput.setBlastOutputQuerySeq(maybe(random, sequence(random, 20)));
+        BlastOutputParam param = new BlastOutputParam();
+        Parameters parameters = new Parameters();
+        parameters.setParametersExpect("10");
+        parameters.setParametersScMatch("1");
+        parameters.setParametersScMismatch("-2");
+        parameters.setParametersGapOpen("5");
+        parameters.setParametersGapExtend("2");
+        parameters.setParametersFilter(maybe(random, "L;m;"));
+        param.setParameters(parameters);
+        blastOutput.setBlastOutputParam(param);
+        BlastOutputIterations iterations = new BlastOutputIterations();
+        int hitNum = 0;
+        for (int i=0; i<numIterations; i++) {
+            Iteration iteration = new Iteration();
+            iteration.setIterationIterNum(String.valueOf(i+1));
+            iteration.setIterationQueryID("Query_"+(i+1));
+            iteration.setIterationQueryDef("query "+i+" \u00e9t\u00e9"); // non-ASCII defs must survive UTF-8
+            iteration.setIterationQueryLen(String.valueOf(500+random.nextInt(1000)));
+            int numHits = random.nextInt(maxHits+1);
+            if (numHits==0) {
+                iteration.setIterationMessage("No hits found");
+            } else {
+                IterationHits hits = new IterationHits();
+                for (int h=0; h<numHits; h++) hits.getHit().add(randomHit(random, h+1, ++hitNum));
+                iteration.setIterationHits(hits);
+            }
+            IterationStat stat = new IterationStat();
+            stat.setStatistics(randomStatistics(random));
+            iteration.setIterationStat(stat);
+            iterations.getIteration().add(iteration);
+        }
+        blastOutput.setBlastOutputIterations(iterations);
+        BlastOutputMbstat mbstat = new BlastOutputMbstat();
+        mbstat.setStatistics(randomStatistics(random));
+        blastOutput.setBlastOutputMbstat(mbstat);
+        return blastOutput;
+    }
+
+    static Hit randomHit(Random random, int num, int subject) {
+        Hit hit = new Hit();
+        hit.setHitNum(String.valueOf(num));
+        hit.setHitId("Subject_"+subject);
+        hit.setHitDef("subject "+subject);
+        hit.setHitAccession("Subject_"+subject);
+        hit.setHitLen(String.valueOf(500+random.nextInt(1000)));
+        HitHsps hsps = new HitHsps();
+        int numHsps = 1+random.nextInt(3);
+        for (int s=0; s<numHsps; s++) {
+            Hsp hsp = new Hsp();
+            int length = 8+random.nextInt(30);
+            int queryFrom = 1+random.nextInt(400);
+            int hitFrom = 1+random.nextInt(400);
+            hsp.setHspNum(String.valueOf(s+1));
+            hsp.setHspBitScore(String.format(Locale.US, "%.4f", 10+random.nextDouble()*40));
+            hsp.setHspScore(String.valueOf(length));
+            hsp.setHspEvalue(String.format(Locale.US, "%.5g", random.nextDouble()*Math.pow(10, -random.nextInt(20))));
+            hsp.setHspQueryFrom(String.valueOf(queryFrom));
+            hsp.setHspQueryTo(String.valueOf(queryFrom+length-1));
+            hsp.setHspHitFrom(String.valueOf(hitFrom));
+            hsp.setHspHitTo(String.valueOf(hitFrom+length-1));
+            hsp.setHspQueryFrame("1");
+            hsp.setHspHitFrame(random.nextBoolean() ? "1" : "-1");
+            hsp.setHspIdentity(String.valueOf(length-random.nextInt(3)));
+            hsp.setHspPositive(String.valueOf(length-random.nextInt(3)));
+            hsp.setHspGaps("0");
+            hsp.setHspAlignLen(String.valueOf(length));
+            String qseq = sequence(random, length);
+            hsp.setHspQseq(qseq);
+            hsp.setHspHseq(qseq);
+            hsp.setHspMidline(random.nextInt(10)==0 ? null : qseq.replaceAll(".", "|"));
+            hsps.getHsp().add(hsp);
+        }
+        hit.setHitHsps(hsps);
+        return hit;
+    }
+
+    static Statistics randomStatistics(Random random) {
+        Statistics statistics = new Statistics();
+        statistics.setStatisticsDbNum(String.valueOf(random.nextInt(1000)));
+        statistics.setStatisticsDbLen(String.valueOf(random.nextInt(1000000)));
+        statistics.setStatisticsHspLen(String.valueOf(random.nextInt(30)));
+        statistics.setStatisticsEffSpace(String.valueOf(random.nextInt(100000000)));
+        statistics.setStatisticsKappa("0.46");
+        statistics.setStatisticsLambda("1.28");
+        statistics.setStatisticsEntropy("0.85");
+        return statistics;
+    }
+
+    static String sequence(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i=0; i<length; i++) sb.append(BASES.charAt(random.nextInt(4)));
+        return sb.toString();
+    }
+
+    static String maybe(Random random, String s) {
+        return random.nextBoolean() ? s : null;
+    }
+
+    /**
+     * Assert that two JAXB objects have equal String fields, recursing into nested objects and lists through their getters.
+     */
+    static void assertSameFields(String path, Object expected, Object actual) {
+        if (expected==null || actual==null) {
+            assertEquals(path, expected, actual);
+            return;
+        }
+        assertEquals(path, expected.getClass(), actual.getClass());
+        if (expected instanceof String) {
+            assertEquals(path, expected, actual);
+        } else if (expected instanceof List) {
+            List<?> e = (List<?>) expected;
+            List<?> a = (List<?>) actual;
+            assertEquals(path+" size", e.size(), a.size());
+            for (int i=0; i<e.size(); i++) assertSameFields(path+"["+i+"]", e.get(i), a.get(i));
+        } else {
+            for (Method getter : expected.getClass().getMethods()) {
+                if (!getter.getName().startsWith("get") || getter.getParameterTypes().length>0 || getter.getDeclaringClass()==Object.class) continue;
+                try {
+                    assertSameFields(path+"."+getter.getName(), getter.invoke(expected), getter.invoke(actual));
+                } catch (ReflectiveOperationException ex) {
+                    throw new AssertionError(path+"."+getter.getName(), ex);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,291 @@
+package org.ncgr.newicktree;
+
+import java.util.Arrays;
+
+/**
+ * A (phylogenetic) tree stored in primitive arrays rather than TreeNode objects.
+ * Nodes are ints numbered in preorder (root = 0, depth-first), the same as the keys of a {@link Tree}, so a node's
+ * preorder rank is the node itself and its subtree is the range [node, node+subtreeSize). Each node costs six ints and a float:
+ * parent, first child, next sibling, leaf count, subtree size, name index and branch weight. Names are indexes into a
+ * {@link NameDictionary} which may be shared across trees.
+ * <p>
+ * A CompactTree is built either from a Tree or by adding nodes in preorder with {@link #addNode(int)},
+ * followed by {@link #postProcess()}.
+ *
+ * @author Sam Hokin
+ * @see Tree
+ * @see NameDictionary
+ */
+public class CompactTree {
+
+    /** The value of parent, firstChild, nextSibling and name for none. */
+    public static final int NONE = -1;
+
+    private NameDictionary names;
+    private String treeName;
+    private int size = 0;
+    private int height = 0;
+
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] leafCount;
+    private int[] subtreeSize;
+    private int[] name;
+    private float[] weight;
+
+    // last child of each node, used only while adding nodes
+    private int[] lastChild;
+
+    // open-addressed table of named nodes, hashed on name index
+    private int[] nameTable;
+
+    /**
+     * Construct an empty tree to which nodes are added in preorder.
+     * @param names The dictionary that holds the node names.
+     */
+    public CompactTree(NameDictionary names) {
+        this(names, 16);
+    }
+
+    /**
+     * Construct an empty tree to which nodes are added in preorder.
+     * @param names The dictionary that holds the node names.
+     * @param capacity The expected number of nodes.
+     */
+    public CompactTree(NameDictionary names, int capacity) {
+        this.names = names;
+        capacity = Math.max(capacity, 1);
+        parent = new int[capacity];
+        firstChild = new int[capacity];
+        nextSibling = new int[capacity];
+        name = new int[capacity];
+        weight = new float[capacity];
+        lastChild = new int[capacity];
+    }
+
+    /**
+     * Construct a compact copy of a post-processed Tree, with the same node keys, names and weights.
+     * @param tree The tree to copy.
+     * @param names The dictionary that holds the node names.
+     */
+    public CompactTree(Tree tree, NameDictionary names) {
+        this(names, tree.nodes.size());
+        treeName = tree.getName();
+        for (TreeNode n : tree.nodes) {
+            int node = addNode(n.isRoot() ? NONE : n.parent.getKey());
+            setName(node, n.getName());
+            setWeight(node, n.getWeight());
+        }
+        postProcess();
+    }
+
+    /**
+     * Add a node as the last child of a parent. Nodes must be added in preorder: the parent is the root or
+     * a node on the path from the root to the last node added.
+     * @param parentNode The parent of the new node, or {@link #NONE} for the root.
+     * @return The new node.
+     */
+    public int addNode(int parentNode) {
+        if (size==parent.length) grow();
+        int node = size++;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        name[node] = NONE;
+        lastChild[node] = NONE;
+        if (parentNode!=NONE) {
+            if (lastChild[parentNode]==NONE) {
+                firstChild[parentNode] = node;
+            } else {
+                nextSibling[lastChild[parentNode]] = node;
+            }
+            lastChild[parentNode] = node;
+        }
+        return node;
+    }
+
+    /**
+     * Set the name of a node; a null or empty name leaves it unnamed.
+     */
+    public void setName(int node, String s) {
+        name[node] = (s==null || s.length()==0) ? NONE : names.intern(s);
+    }
+
+    /**
+     * Set the weight of a node, the length of the edge above it.
+     */
+    public void setWeight(int node, float w) {
+        weight[node] = w;
+    }
+
+    /**
+     * Set the name of this tree, such as its file name or nexus tree name.
+     */
+    public void setName(String s) {
+        treeName = s;
+    }
+
+    /**
+     * Computes leaf counts, subtree sizes, the height and the name lookup table once all nodes have been added,
+     * and trims the arrays to the number of nodes.
+     */
+    public void postProcess() {
+        parent = Arrays.copyOf(parent, size);
+        firstChild = Arrays.copyOf(firstChild, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        name = Arrays.copyOf(name, size);
+        weight = Arrays.copyOf(weight, size);
+        lastChild = null;
+        leafCount = new int[size];
+        subtreeSize = new int[size];
+        // children come after their parents in preorder, so a reverse pass sees every subtree before its root
+        for (int n=size-1; n>=0; n--) {
+            if (firstChild[n]==NONE) leafCount[n] = 1;
+            subtreeSize[n] += 1;
+            if (parent[n]!=NONE) {
+                leafCount[parent[n]] += leafCount[n];
+                subtreeSize[parent[n]] += subtreeSize[n];
+            }
+        }
+        int[] depth = new int[size];
+        height = 0;
+        for (int n=0; n<size; n++) {
+            depth[n] = (parent[n]==NONE) ? 1 : depth[parent[n]]+1;
+            if (depth[n]>height) height = depth[n];
+        }
+        int named = 0;
+        for (int n=0; n<size; n++) if (name[n]!=NONE) named++;
+        nameTable = new int[Integer.highestOneBit(Math.max(named, 1))*4];
+        Arrays.fill(nameTable, NONE);
+        int mask = nameTable.length-1;
+        for (int n=0; n<size; n++) {
+            if (name[n]==NONE) continue;
+            int slot = hash(name[n]) & mask;
+            while (nameTable[slot]!=NONE && name[nameTable[slot]]!=name[n]) slot = (slot+1) & mask;
+            if (nameTable[slot]==NONE) nameTable[slot] = n; // keep the first node with a given name
+        }
+    }
+
+    /**
+     * @return The name of this tree, or null.
+     */
+    public String getName() { return treeName; }
+
+    /**
+     * @return The dictionary holding the node names.
+     */
+    public NameDictionary getNameDictionary() { return names; }
+
+    /**
+     * @return The number of nodes.
+     */
+    public int size() { return size; }
+
+    /**
+     * @return The root node, which is always 0.
+     */
+    public int getRoot() { return 0; }
+
+    /**
+     * @return The height of the tree, the number of nodes on the longest path from the root to a leaf.
+     */
+    public int getHeight() { return height; }
+
+    /**
+     * @return The number of leaves in the tree.
+     */
+    public int getLeafCount() { return leafCount[0]; }
+
+    public int getParent(int node) { return parent[node]; }
+    public int getFirstChild(int node) { return firstChild[node]; }
+    public int getNextSibling(int node) { return nextSibling[node]; }
+    public int getLeafCount(int node) { return leafCount[node]; }
+    public int getSubtreeSize(int node) { return subtreeSize[node]; }
+    public float getWeight(int node) { return weight[node]; }
+    public boolean isLeaf(int node) { return firstChild[node]==NONE; }
+    public boolean isRoot(int node) { return parent[node]==NONE; }
+
+    /**
+     * @return The dictionary index of a node's name, or {@link #NONE} if it is unnamed.
+     */
+    public int getNameIndex(int node) { return name[node]; }
+
+    /**
+     * @return The name of a node, or "" if it is unnamed, as with TreeNode.
+     */
+    public String getName(int node) {
+        return (name[node]==NONE) ? "" : names.get(name[node]);
+    }
+
+    /**
+     * @return The number of children of a node.
+     */
+    public int numberChildren(int node) {
+        int count = 0;
+        for (int c=firstChild[node]; c!=NONE; c=nextSibling[c]) count++;
+        return count;
+    }
+
+    /**
+     * Returns the first node with the given name, in expected constant time.
+     * @param s The name of the node.
+     * @return The node, or {@link #NONE} if no node has that name.
+     */
+    public int getNode(String s) {
+        int index = names.indexOf(s);
+        if (index==NONE) return NONE;
+        int mask = nameTable.length-1;
+        for (int slot=hash(index) & mask; nameTable[slot]!=NONE; slot=(slot+1) & mask) {
+            if (name[nameTable[slot]]==index) return nameTable[slot];
+        }
+        return NONE;
+    }
+
+    /**
+     * Build the equivalent post-processed Tree of TreeNodes, for code that needs one.
+     * @return The Tree.
+     */
+    public Tree toTree() {
+        TreeNode[] nodes = new TreeNode[size];
+        for (int n=0; n<size; n++) {
+            nodes[n] = new TreeNode();
+            nodes[n].setName(getName(n));
+            nodes[n].setWeight(weight[n]);
+            if (parent[n]!=NONE) nodes[parent[n]].addChild(nodes[n]);
+        }
+        // link in reverse preorder so that each node's children are linked before it, as TreeParser does as it pops nodes
+        for (int n=size-1; n>=0; n--) {
+            nodes[n].setExtremeLeaves();
+            nodes[n].setNumberLeaves();
+            nodes[n].linkNodesInPreorder();
+            nodes[n].linkNodesInPostorder();
+        }
+        Tree t = new Tree();
+        t.setRootNode(nodes[0]);
+        if (treeName!=null) t.setFileName(treeName);
+        t.postProcess();
+        return t;
+    }
+
+    /**
+     * Double the capacity of the arrays used while adding nodes.
+     */
+    private void grow() {
+        int capacity = parent.length*2;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        name = Arrays.copyOf(name, capacity);
+        weight = Arrays.copyOf(weight, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+    }
+
+    /**
+     * Scramble a name index for the name table.
+     */
+    private static int hash(int index) {
+        return index*0x9E3779B9 >>> 7;
+    }
+
+}
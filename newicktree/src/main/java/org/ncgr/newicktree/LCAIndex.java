@@ -0,0 +1,147 @@
+package org.ncgr.newicktree;
+
+/**
+ * A lowest common ancestor index over a tree whose nodes are numbered in preorder, as Tree keys and CompactTree nodes are.
+ * Building it takes O(n log n) time and space; after that, LCA, patristic distance and ancestry queries are O(1) and allocate nothing.
+ * <p>
+ * This is the Euler tour range-minimum method on the preorder sequence, which needs n entries rather than 2n-1: for nodes u and v
+ * with u before v in preorder and u not an ancestor of v, the shallowest node in the preorder range (u, v] is the child of their LCA
+ * on the path to v. A sparse table answers the range minimum with two overlapping power-of-two lookups.
+ *
+ * @author Sam Hokin
+ * @see Tree#buildLCAIndex()
+ */
+public class LCAIndex {
+
+    private int[] parent;
+    private int[] depth;
+    private int[] subtreeEnd;
+    private double[] rootDistance;
+    // sparse[k][i] is the shallowest node in the preorder range [i, i+2^k)
+    private int[][] sparse;
+
+    /**
+     * Build the index for a compact tree.
+     * @param tree The tree.
+     */
+    public LCAIndex(CompactTree tree) {
+        int n = tree.size();
+        int[] parents = new int[n];
+        float[] weights = new float[n];
+        for (int i=0; i<n; i++) {
+            parents[i] = tree.getParent(i);
+            weights[i] = tree.getWeight(i);
+        }
+        build(parents, weights);
+    }
+
+    /**
+     * Build the index from parent nodes and weights, indexed by preorder node, with -1 for the root's parent.
+     * @param parent The parent of each node.
+     * @param weight The weight of each node, the length of the edge above it.
+     */
+    public LCAIndex(int[] parent, float[] weight) {
+        build(parent, weight);
+    }
+
+    /**
+     * Compute depths, subtree ends, root distances and the sparse table.
+     */
+    private void build(int[] parent, float[] weight) {
+        int n = parent.length;
+        this.parent = parent;
+        depth = new int[n];
+        rootDistance = new double[n];
+        subtreeEnd = new int[n];
+        for (int i=0; i<n; i++) {
+            if (parent[i]>=0) {
+                depth[i] = depth[parent[i]]+1;
+                rootDistance[i] = rootDistance[parent[i]]+weight[i];
+            }
+            subtreeEnd[i] = i+1;
+        }
+        // descendants follow a node in preorder, so a reverse pass carries each subtree's end up to its root
+        for (int i=n-1; i>0; i--) {
+            if (subtreeEnd[i]>subtreeEnd[parent[i]]) subtreeEnd[parent[i]] = subtreeEnd[i];
+        }
+        int levels = 32-Integer.numberOfLeadingZeros(Math.max(n, 1));
+        sparse = new int[levels][];
+        sparse[0] = new int[n];
+        for (int i=0; i<n; i++) sparse[0][i] = i;
+        for (int k=1; k<levels; k++) {
+            int half = 1<<(k-1);
+            int length = n-(1<<k)+1;
+            sparse[k] = new int[length];
+            for (int i=0; i<length; i++) sparse[k][i] = shallower(sparse[k-1][i], sparse[k-1][i+half]);
+        }
+    }
+
+    /**
+     * @return The number of nodes.
+     */
+    public int size() {
+        return parent.length;
+    }
+
+    /**
+     * Return the lowest common ancestor of two nodes, which is one of them if it is an ancestor of the other.
+     * @param u A preorder node.
+     * @param v Another preorder node.
+     * @return The preorder node of the lowest common ancestor.
+     */
+    public int getLCA(int u, int v) {
+        if (u==v) return u;
+        if (u>v) {
+            int t = u;
+            u = v;
+            v = t;
+        }
+        if (v<subtreeEnd[u]) return u;
+        int l = u+1;
+        int k = 31-Integer.numberOfLeadingZeros(v-l+1);
+        return parent[shallower(sparse[k][l], sparse[k][v-(1<<k)+1])];
+    }
+
+    /**
+     * Return the patristic distance between two nodes, the sum of the weights on the path between them.
+     */
+    public double getPatristicDistance(int u, int v) {
+        return rootDistance[u]+rootDistance[v]-2*rootDistance[getLCA(u, v)];
+    }
+
+    /**
+     * Return the number of edges on the path between two nodes.
+     */
+    public int getEdgeDistance(int u, int v) {
+        return depth[u]+depth[v]-2*depth[getLCA(u, v)];
+    }
+
+    /**
+     * Return true if u is an ancestor of v; a node is its own ancestor.
+     */
+    public boolean isAncestor(int u, int v) {
+        return u<=v && v<subtreeEnd[u];
+    }
+
+    /**
+     * @return The depth of a node, with the root at 0.
+     */
+    public int getDepth(int u) {
+        return depth[u];
+    }
+
+    /**
+     * @return The sum of the weights on the path from the root to a node.
+     */
+    public double getRootDistance(int u) {
+        return rootDistance[u];
+    }
+
+    /**
+     * @return Whichever node is nearer the root, the first if they are at the same depth.
+     */
+    private int shallower(int a, int b) {
+        return depth[b]<depth[a] ? b : a;
+    }
+
+}
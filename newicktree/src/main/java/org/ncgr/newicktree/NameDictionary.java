@@ -0,0 +1,60 @@
+package org.ncgr.newicktree;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A dictionary of node names, each stored once and referred to by an int index, which may be shared by many CompactTrees
+ * so that the same leaf has the same index in every tree of a collection. Methods are synchronized so that trees may be parsed
+ * into one dictionary from several threads.
+ *
+ * @author Sam Hokin
+ * @see CompactTree
+ */
+public class NameDictionary {
+
+    private String[] names = new String[1024];
+    private HashMap<String,Integer> indexes = new HashMap<>();
+    private int size = 0;
+
+    /**
+     * Return the index of the given name, adding it if it isn't already present.
+     * @param name The name.
+     * @return The index of the name.
+     */
+    public synchronized int intern(String name) {
+        Integer index = indexes.get(name);
+        if (index!=null) return index;
+        if (size==names.length) names = Arrays.copyOf(names, size*2);
+        names[size] = name;
+        indexes.put(name, size);
+        return size++;
+    }
+
+    /**
+     * Return the index of the given name, or -1 if it isn't present.
+     * @param name The name.
+     * @return The index of the name, or -1.
+     */
+    public synchronized int indexOf(String name) {
+        Integer index = indexes.get(name);
+        return (index==null) ? -1 : index;
+    }
+
+    /**
+     * Return the name at the given index.
+     * @param index An index returned by {@link #intern(String)}.
+     * @return The name.
+     */
+    public synchronized String get(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return The number of names in the dictionary.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+}
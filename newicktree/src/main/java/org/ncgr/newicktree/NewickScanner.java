@@ -0,0 +1,434 @@
+package org.ncgr.newicktree;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A single-pass, byte-level Newick scanner which builds trees straight into {@link CompactTree} arrays,
+ * reading from a buffered InputStream or from a range of a byte array.
+ * <p>
+ * Handles 'single' and "double" quoted labels (a doubled quote inside is a literal quote), [comments], which are skipped
+ * wherever whitespace may appear, and branch lengths in decimal or exponent notation. Unquoted labels run up to the next
+ * whitespace or one of ()[]':;, and are kept as written, underscores included, as TreeParser always has.
+ *
+ * @author Sam Hokin
+ * @see CompactTree
+ * @see TreeParser
+ */
+public class NewickScanner {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private InputStream in;
+    private byte[] buf;
+    private int pos;
+    private int limit;
+    private long consumed = 0; // bytes before buf[0], for error positions
+
+    // reusable buffer for labels and numbers
+    private byte[] token = new byte[256];
+    private int tokenLength;
+
+    // nexus TRANSLATE table from label to name, or null
+    private Map<String,String> translation = null;
+
+    /**
+     * Scan trees from an InputStream, which is read in large blocks and need not be buffered.
+     * @param in The input stream.
+     */
+    public NewickScanner(InputStream in) {
+        this.in = in;
+        buf = new byte[BUFFER_SIZE];
+        pos = 0;
+        limit = 0;
+    }
+
+    /**
+     * Scan trees from a range of a byte array.
+     * @param bytes The bytes.
+     * @param offset The start of the range.
+     * @param length The length of the range.
+     */
+    public NewickScanner(byte[] bytes, int offset, int length) {
+        buf = bytes;
+        pos = offset;
+        limit = offset+length;
+        consumed = 0;
+    }
+
+    /**
+     * Set a table from label to name, such as a nexus TRANSLATE table, through which leaf labels are mapped as they are scanned;
+     * internal node labels, and labels not in the table, are kept as they are.
+     * @param translation The table, or null for none.
+     */
+    public void setTranslation(Map<String,String> translation) {
+        this.translation = translation;
+    }
+
+    /**
+     * Scan the next tree, up to and including its terminating semicolon or the end of the input.
+     * @param names The dictionary to hold the node names.
+     * @return The post-processed tree, or null if there are no more trees.
+     * @throws IOException On a read error or malformed Newick.
+     */
+    public CompactTree nextTree(NameDictionary names) throws IOException {
+        if (skipSpace()<0) return null;
+        CompactTree tree = new CompactTree(names);
+        int current = tree.addNode(CompactTree.NONE);
+        int depth = 0;
+        boolean named = false;
+        int c;
+        while ((c=skipSpace())>=0) {
+            switch (c) {
+            case '(':
+                pos++;
+                depth++;
+                current = tree.addNode(current);
+                named = false;
+                break;
+            case ',':
+                pos++;
+                if (depth==0) throw error("comma outside parentheses");
+                current = tree.addNode(tree.getParent(current));
+                named = false;
+                break;
+            case ')':
+                pos++;
+                if (depth==0) throw error("unbalanced close parenthesis");
+                depth--;
+                current = tree.getParent(current);
+                named = false;
+                break;
+            case ':':
+                pos++;
+                skipSpace();
+                tree.setWeight(current, readLength());
+                break;
+            case ';':
+                pos++;
+                if (depth>0) throw error(depth+" unclosed parentheses");
+                tree.postProcess();
+                return tree;
+            default:
+                if (named) throw error("unexpected label");
+                String label = readLabel();
+                // only leaf labels are translated; a label after ')' is an internal node's name or support value
+                if (translation!=null && tree.isLeaf(current)) {
+                    String translated = translation.get(label);
+                    if (translated!=null) label = translated;
+                }
+                tree.setName(current, label);
+                named = true;
+                break;
+            }
+        }
+        // end of input serves as the terminator, as with TreeParser
+        if (depth>0) throw error(depth+" unclosed parentheses");
+        tree.postProcess();
+        return tree;
+    }
+
+    /**
+     * @return The position of the next byte in the buffer, which for a byte array is its index in the array.
+     */
+    int getPosition() {
+        return pos;
+    }
+
+    /**
+     * Skip whitespace and comments.
+     * @return The next byte, which is not consumed, or -1 at the end of the input.
+     */
+    int skipSpace() throws IOException {
+        while (true) {
+            if (pos==limit && !fill()) return -1;
+            int c = buf[pos] & 0xFF;
+            if (c=='[') {
+                skipComment();
+            } else if (c<=' ') {
+                pos++;
+            } else {
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Skip a comment, which may contain nested comments, starting at its open bracket.
+     */
+    void skipComment() throws IOException {
+        int level = 0;
+        do {
+            if (pos==limit && !fill()) throw error("unterminated comment");
+            byte b = buf[pos++];
+            if (b=='[') {
+                level++;
+            } else if (b==']') {
+                level--;
+            }
+        } while (level>0);
+    }
+
+    /**
+     * Read a nexus word: a quoted or unquoted label, with = also ending an unquoted one, or a single punctuation character.
+     * @return The word, or null at the end of the input.
+     */
+    String readWord() throws IOException {
+        int c = skipSpace();
+        if (c<0) return null;
+        if (c=='=' || (c!='\'' && c!='"' && isDelimiter((byte) c))) {
+            pos++;
+            return String.valueOf((char) c);
+        }
+        if (c=='\'' || c=='"') return readLabel();
+        tokenLength = 0;
+        while (pos<limit || fill()) {
+            byte b = buf[pos];
+            if (b=='=' || isDelimiter(b)) break;
+            append(b);
+            pos++;
+        }
+        return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skip to just past the next semicolon that isn't quoted or in a comment, such as the end of a nexus command or tree.
+     */
+    void skipStatement() throws IOException {
+        int c;
+        while ((c=skipSpace())>=0) {
+            if (c=='\'' || c=='"') {
+                readLabel();
+            } else {
+                pos++;
+                if (c==';') return;
+            }
+        }
+    }
+
+    /**
+     * Read a quoted or unquoted label starting at the current byte.
+     */
+    String readLabel() throws IOException {
+        int quote = buf[pos] & 0xFF;
+        if (quote=='\'' || quote=='"') {
+            pos++;
+            tokenLength = 0;
+            while (true) {
+                if (pos==limit && !fill()) throw error("unterminated quoted label");
+                byte b = buf[pos++];
+                if (b==quote) {
+                    if ((pos<limit || fill()) && buf[pos]==quote) {
+                        pos++;
+                    } else {
+                        break;
+                    }
+                }
+                append(b);
+            }
+            return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+        }
+        int end = scanLabel(buf, pos, limit);
+        if (end<limit || in==null) {
+            // the usual case: the whole label is in the buffer
+            String label = new String(buf, pos, end-pos, StandardCharsets.UTF_8);
+            pos = end;
+            return label;
+        }
+        tokenLength = 0;
+        do {
+            end = scanLabel(buf, pos, limit);
+            appendRange(pos, end);
+            pos = end;
+        } while (pos==limit && fill());
+        return new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read a branch length starting at the current byte.
+     */
+    float readLength() throws IOException {
+        int end = scanNumber(buf, pos, limit);
+        if (end<limit || in==null) {
+            // the usual case: the whole number is in the buffer
+            float length = parseLength(buf, pos, end);
+            pos = end;
+            return length;
+        }
+        tokenLength = 0;
+        do {
+            end = scanNumber(buf, pos, limit);
+            appendRange(pos, end);
+            pos = end;
+        } while (pos==limit && fill());
+        return parseLength(token, 0, tokenLength);
+    }
+
+    /**
+     * Parse a branch length. Up to 15 significant digits are parsed by hand, which is exact in a double before its single
+     * rounding to float; longer mantissas are truncated to 15 digits, well below float precision, and anything unusual
+     * goes to Float.parseFloat.
+     */
+    private float parseLength(byte[] bytes, int start, int end) throws IOException {
+        if (start==end) throw error("missing branch length");
+        int i = start;
+        boolean negative = false;
+        if (bytes[i]=='-' || bytes[i]=='+') {
+            negative = bytes[i]=='-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i<end; i++) {
+            byte b = bytes[i];
+            if (b>='0' && b<='9') {
+                any = true;
+                if (mantissa==0 && b=='0') {
+                    if (point) scale--;
+                } else if (digits<15) {
+                    mantissa = mantissa*10+(b-'0');
+                    digits++;
+                    if (point) scale--;
+                } else if (!point) {
+                    scale++;
+                }
+            } else if (b=='.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!any) return parseFallback(bytes, start, end);
+        if (i<end) {
+            // exponent
+            if (bytes[i]!='e' && bytes[i]!='E') return parseFallback(bytes, start, end);
+            i++;
+            boolean negativeExponent = false;
+            if (i<end && (bytes[i]=='-' || bytes[i]=='+')) {
+                negativeExponent = bytes[i]=='-';
+                i++;
+            }
+            if (i==end) return parseFallback(bytes, start, end);
+            int exponent = 0;
+            for (; i<end; i++) {
+                byte b = bytes[i];
+                if (b<'0' || b>'9' || exponent>10000) return parseFallback(bytes, start, end);
+                exponent = exponent*10+(b-'0');
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        double value;
+        if (mantissa==0) {
+            value = 0.0;
+        } else if (scale>=0 && scale<POW10.length) {
+            value = mantissa*POW10[scale];
+        } else if (scale<0 && -scale<POW10.length) {
+            value = mantissa/POW10[-scale];
+        } else {
+            return parseFallback(bytes, start, end);
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Parse a branch length with Float.parseFloat.
+     */
+    private float parseFallback(byte[] bytes, int start, int end) throws IOException {
+        String s = new String(bytes, start, end-start, StandardCharsets.ISO_8859_1);
+        try {
+            return Float.parseFloat(s);
+        } catch (NumberFormatException e) {
+            throw error("bad branch length "+s);
+        }
+    }
+
+    /**
+     * @return The end of the unquoted label bytes starting at start, or limit.
+     */
+    private static int scanLabel(byte[] bytes, int start, int limit) {
+        int i = start;
+        while (i<limit && !isDelimiter(bytes[i])) i++;
+        return i;
+    }
+
+    /**
+     * @return The end of the number bytes starting at start, or limit.
+     */
+    private static int scanNumber(byte[] bytes, int start, int limit) {
+        int i = start;
+        while (i<limit) {
+            byte b = bytes[i];
+            if ((b>='0' && b<='9') || b=='.' || b=='-' || b=='+' || b=='e' || b=='E') {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return True if b ends an unquoted label.
+     */
+    private static boolean isDelimiter(byte b) {
+        switch (b) {
+        case '(': case ')': case '[': case ']': case '\'': case ':': case ';': case ',':
+            return true;
+        default:
+            return (b & 0xFF)<=' ';
+        }
+    }
+
+    /**
+     * Append a byte to the token buffer.
+     */
+    private void append(byte b) {
+        if (tokenLength==token.length) token = Arrays.copyOf(token, tokenLength*2);
+        token[tokenLength++] = b;
+    }
+
+    /**
+     * Append buf[start..end) to the token buffer.
+     */
+    private void appendRange(int start, int end) {
+        int n = end-start;
+        if (tokenLength+n>token.length) token = Arrays.copyOf(token, Math.max(token.length*2, tokenLength+n));
+        System.arraycopy(buf, start, token, tokenLength, n);
+        tokenLength += n;
+    }
+
+    /**
+     * Refill the buffer from the input stream.
+     * @return False at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        if (in==null) return false;
+        consumed += limit;
+        pos = 0;
+        limit = 0;
+        int n;
+        while ((n=in.read(buf, 0, buf.length))==0);
+        if (n<0) return false;
+        limit = n;
+        return true;
+    }
+
+    /**
+     * @return An IOException reporting a Newick syntax error at the current position.
+     */
+    private IOException error(String message) {
+        return new IOException("Newick error at byte "+(consumed+pos)+": "+message);
+    }
+
+}
@@ -0,0 +1,211 @@
+package org.ncgr.newicktree;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates lazily over the trees in the TREES blocks of a nexus file in a single pass, yielding (name, Tree) pairs.
+ * The TRANSLATE table is read once and applied by {@link NewickScanner} to each tree's leaf labels as they are scanned, and the first
+ * trees may be skipped as burn-in, which are passed over without being built.
+ * Read errors are thrown as UncheckedIOException from {@link #hasNext()} and {@link #next()}.
+ *
+ * @author Sam Hokin
+ * @see TreeParser
+ * @see NewickScanner
+ */
+public class NexusTreeIterator implements Iterator<Map.Entry<String,Tree>>, Closeable {
+
+    private InputStream in;
+    private NewickScanner scanner;
+    private NameDictionary names;
+    private int burnin;
+    private int treeCount = 0;
+    private boolean inTrees = false;
+    private HashMap<String,String> translation = new HashMap<>();
+    private CompactTree nextTree = null;
+    private boolean done = false;
+
+    /**
+     * Iterate over the trees in a nexus file.
+     * @param file The nexus file.
+     */
+    public NexusTreeIterator(File file) throws IOException {
+        this(new FileInputStream(file), new NameDictionary(), 0);
+    }
+
+    /**
+     * Iterate over the trees in a nexus file, skipping the first burnin trees.
+     * @param file The nexus file.
+     * @param burnin The number of trees to skip.
+     */
+    public NexusTreeIterator(File file, int burnin) throws IOException {
+        this(new FileInputStream(file), new NameDictionary(), burnin);
+    }
+
+    /**
+     * Iterate over the trees in a nexus stream, skipping the first burnin trees.
+     * @param in The nexus input stream, which is closed by {@link #close()}.
+     * @param names The dictionary to hold the node names.
+     * @param burnin The number of trees to skip.
+     */
+    public NexusTreeIterator(InputStream in, NameDictionary names, int burnin) {
+        this(new NewickScanner(in), names, burnin);
+        this.in = in;
+    }
+
+    /**
+     * Iterate over the trees read by a scanner, such as one over a byte array, skipping the first burnin trees.
+     */
+    NexusTreeIterator(NewickScanner scanner, NameDictionary names, int burnin) {
+        this.scanner = scanner;
+        this.names = names;
+        this.burnin = burnin;
+        scanner.setTranslation(translation);
+    }
+
+    /**
+     * @return True if there is another tree.
+     */
+    public boolean hasNext() {
+        if (nextTree==null && !done) {
+            try {
+                nextTree = scan();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            done = (nextTree==null);
+        }
+        return nextTree!=null;
+    }
+
+    /**
+     * @return The name and Tree of the next tree.
+     */
+    public Map.Entry<String,Tree> next() {
+        CompactTree tree = nextCompactTree();
+        return new AbstractMap.SimpleImmutableEntry<>(tree.getName(), tree.toTree());
+    }
+
+    /**
+     * Return the next tree without building TreeNodes, named by its nexus tree name.
+     * @return The next tree.
+     */
+    public CompactTree nextCompactTree() {
+        if (!hasNext()) throw new NoSuchElementException();
+        CompactTree tree = nextTree;
+        nextTree = null;
+        return tree;
+    }
+
+    /**
+     * @return The number of tree statements read so far, including those skipped as burn-in.
+     */
+    public int getTreeCount() {
+        return treeCount;
+    }
+
+    /**
+     * Close the input stream, if there is one.
+     */
+    public void close() throws IOException {
+        if (in!=null) in.close();
+    }
+
+    /**
+     * Scan forward to the next tree past the burn-in.
+     * @return The tree, or null at the end of the file.
+     */
+    private CompactTree scan() throws IOException {
+        String name;
+        while ((name=nextStatement())!=null) {
+            treeCount++;
+            if (treeCount<=burnin) {
+                scanner.skipStatement();
+            } else {
+                CompactTree tree = scanner.nextTree(names);
+                if (tree==null) throw new IOException("Missing tree "+name+" in nexus file");
+                tree.setName(name);
+                return tree;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scan forward to the next tree statement, leaving the scanner just past its equals sign.
+     * @return The tree name, or null at the end of the file.
+     */
+    String nextStatement() throws IOException {
+        String word;
+        while ((word=scanner.readWord())!=null) {
+            if (!inTrees) {
+                if (word.equalsIgnoreCase("begin")) {
+                    String block = scanner.readWord();
+                    inTrees = (block!=null && block.equalsIgnoreCase("trees"));
+                    if (inTrees) {
+                        // a new table per block, since indexed statements keep a reference to theirs
+                        translation = new HashMap<>();
+                        scanner.setTranslation(translation);
+                    }
+                    scanner.skipStatement();
+                } else if (!word.startsWith("#")) {
+                    scanner.skipStatement();
+                }
+            } else if (word.equalsIgnoreCase("end") || word.equalsIgnoreCase("endblock")) {
+                inTrees = false;
+                scanner.skipStatement();
+            } else if (word.equalsIgnoreCase("translate")) {
+                readTranslation();
+            } else if (word.equalsIgnoreCase("tree") || word.equalsIgnoreCase("utree")) {
+                String name = scanner.readWord();
+                if ("*".equals(name)) name = scanner.readWord();
+                String equals = scanner.readWord();
+                if (name==null || !"=".equals(equals)) throw new IOException("Expected tree <name> = in nexus file, got "+name+" "+equals);
+                return name;
+            } else if (!word.equals(";")) {
+                scanner.skipStatement();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The scanner, positioned by {@link #nextStatement()}.
+     */
+    NewickScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * @return The TRANSLATE table of the current TREES block.
+     */
+    Map<String,String> getTranslation() {
+        return translation;
+    }
+
+    /**
+     * Read the pairs of a TRANSLATE command into the translation table.
+     */
+    private void readTranslation() throws IOException {
+        while (true) {
+            String label = scanner.readWord();
+            if (label==null || label.equals(";")) return;
+            String name = scanner.readWord();
+            if (name==null || name.equals(";")) throw new IOException("Incomplete TRANSLATE entry for "+label);
+            translation.put(label, name);
+            String separator = scanner.readWord();
+            if (separator==null || separator.equals(";")) return;
+            if (!separator.equals(",")) throw new IOException("Expected , or ; in TRANSLATE, got "+separator);
+        }
+    }
+
+}
@@ -3,9 +3,11 @@ package org.ncgr.newicktree;
 import java.text.Collator;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Vector;
 
@@ -37,6 +39,15 @@ public class Tree {
     /** Leaf counter, for determining grid size, making arrays for tree comparisons */
     private int numLeaves = 0;
 
+    /** The leaves in preorder, indexed by {@link TreeNode#leafIndex}, so that the leaves under any node are a contiguous range */
+    private TreeNode[] leafArray = new TreeNode[0];
+
+    /** Optional LCA index, built by {@link #buildLCAIndex()} */
+    private LCAIndex lcaIndex = null;
+
+    /** Nodes indexed by key, built with {@link #lcaIndex} */
+    private TreeNode[] nodesByKey = null;
+
     // reference for array of leaves in SC.cullingObject
     /** Split axis reference for leaf recovery (leaves are attached to split line culling objects) */
     //private StaticSplitAxis leafSplitAxis;
@@ -67,6 +78,10 @@ public class Tree {
         nodes = new LinkedList(treeToCopy.nodes);
         nodesByName = new HashMap(treeToCopy.nodesByName);
         numLeaves = treeToCopy.numLeaves;
+        leafArray = treeToCopy.leafArray;
+        // the nodes are shared, so the LCA index still applies
+        lcaIndex = treeToCopy.lcaIndex;
+        nodesByKey = treeToCopy.nodesByKey;
         root = treeToCopy.root;
     }
 
@@ -294,7 +309,7 @@ public class Tree {
         int counter = 0;
         int percentage = 0;
         TreeNode pren = root.leftmostLeaf;
-        Vector leaves = new Vector();
+        Vector<TreeNode> leaves = new Vector<>();
         leaves.add(pren);
         //		pren.lindex = 0;
         for(TreeNode n = pren.preorderNext; n!=null; n=n.preorderNext)
@@ -306,9 +321,13 @@ public class Tree {
                     }
             }
         numLeaves = leaves.size();
+        leafArray = leaves.toArray(new TreeNode[numLeaves]);
+        for (int i=0; i<numLeaves; i++) {
+            leafArray[i].leafIndex = i;
+        }
 
         NameComparator myNameComparator = new NameComparator();
-        TreeNode[] sortedLeafArray = (TreeNode[])leaves.toArray(new TreeNode[leaves.size()]);
+        TreeNode[] sortedLeafArray = leaves.toArray(new TreeNode[leaves.size()]);
         Arrays.sort(sortedLeafArray, myNameComparator);
         int index = 0;
         TreeNode curr = sortedLeafArray[0];
@@ -335,14 +354,109 @@ public class Tree {
         }
     }
 
+    /**
+     * Build the LCA index, in O(n log n) time and space, after which {@link #getLCA(TreeNode, TreeNode)},
+     * {@link #getPatristicDistance(TreeNode, TreeNode)} and {@link #isAncestor(TreeNode, TreeNode)} are constant time.
+     * Must be called after {@link #postProcess()}, and again if the tree changes.
+     * @see LCAIndex
+     */
+    public void buildLCAIndex() {
+        int n = nodes.size();
+        nodesByKey = nodes.toArray(new TreeNode[n]);
+        int[] parents = new int[n];
+        float[] weights = new float[n];
+        for (int i=0; i<n; i++) {
+            parents[i] = nodesByKey[i].isRoot() ? -1 : nodesByKey[i].parent.getKey();
+            weights[i] = nodesByKey[i].getWeight();
+        }
+        lcaIndex = new LCAIndex(parents, weights);
+    }
+
+    /**
+     * @return The LCA index, or null if {@link #buildLCAIndex()} hasn't been called.
+     */
+    public LCAIndex getLCAIndex() {
+        return lcaIndex;
+    }
+
+    /**
+     * Returns the most recent common ancestor of two nodes, using the LCA index.
+     * @param a A node of this tree.
+     * @param b Another node of this tree.
+     * @return The lowest node that has both as descendants, which is one of them if it is an ancestor of the other.
+     * @throws IllegalStateException if {@link #buildLCAIndex()} hasn't been called.
+     */
+    public TreeNode getLCA(TreeNode a, TreeNode b) {
+        return nodesByKey[requireLCAIndex().getLCA(a.getKey(), b.getKey())];
+    }
+
+    /**
+     * Returns the patristic distance between two nodes, the sum of the weights on the path between them, using the LCA index.
+     * @param a A node of this tree.
+     * @param b Another node of this tree.
+     * @return The patristic distance.
+     * @throws IllegalStateException if {@link #buildLCAIndex()} hasn't been called.
+     */
+    public double getPatristicDistance(TreeNode a, TreeNode b) {
+        return requireLCAIndex().getPatristicDistance(a.getKey(), b.getKey());
+    }
+
+    /**
+     * Tests whether one node is an ancestor of another, using the LCA index.  A node is its own ancestor.
+     * @param a A node of this tree.
+     * @param b Another node of this tree.
+     * @return True if a is on the path from the root to b.
+     * @throws IllegalStateException if {@link #buildLCAIndex()} hasn't been called.
+     */
+    public boolean isAncestor(TreeNode a, TreeNode b) {
+        return requireLCAIndex().isAncestor(a.getKey(), b.getKey());
+    }
+
+    /**
+     * @return The LCA index.
+     * @throws IllegalStateException if {@link #buildLCAIndex()} hasn't been called.
+     */
+    private LCAIndex requireLCAIndex() {
+        if (lcaIndex==null) throw new IllegalStateException("buildLCAIndex() has not been called");
+        return lcaIndex;
+    }
+
     /** Get the leaf associated with the given leaf index.
-     * @param index A leaf index of interest.
+     * @param index A leaf index of interest, in preorder.
      * @return The leaf node at the index, or null on error.
+     * @see TreeNode#leafIndex
      * */
     public TreeNode getLeaf(int index)
     {
-        //		System.out.println("getting leaf: " + index );
-        return null;
+        if (index < 0 || index >= leafArray.length) return null;
+        return leafArray[index];
+    }
+
+    /**
+     * Get the start of the range of leaf indexes under a node.  Constant time.
+     * @param node A node of this tree.
+     * @return The leaf index of the node's leftmost leaf.
+     */
+    public int getLeafStart(TreeNode node) {
+        return node.leftmostLeaf.leafIndex;
+    }
+
+    /**
+     * Get the end (exclusive) of the range of leaf indexes under a node.  Constant time.
+     * @param node A node of this tree.
+     * @return One past the leaf index of the node's rightmost leaf.
+     */
+    public int getLeafEnd(TreeNode node) {
+        return node.rightmostLeaf.leafIndex + 1;
+    }
+
+    /**
+     * Get a read-only view of the leaves under a node, backed by the tree's leaf array.  Constant time, no copying.
+     * @param node A node of this tree.
+     * @return The leaves under the node in preorder; a leaf returns a list of just itself.
+     */
+    public List<TreeNode> getLeafView(TreeNode node) {
+        return Collections.unmodifiableList(Arrays.asList(leafArray).subList(getLeafStart(node), getLeafEnd(node)));
     }
 
     /** Stub function */
@@ -374,24 +488,14 @@ public class Tree {
 	
     /**
      * Get the leaves under this node.  Used for tree to tree comparison, removing leaf nodes from difference calculations when they only appear in one side of the tree.
-     * This operation is constant time per leaf, since it relies on pre-ordered node links and pointers to extreme leaves.
-     * Time complexity of this function is linear in the number of leaves in the subtree under the node.
+     * Copies the node's range of the preorder leaf array, so is linear in the number of leaves in the subtree under the node;
+     * {@link #getLeafStart(TreeNode)}, {@link #getLeafEnd(TreeNode)} and {@link #getLeafView(TreeNode)} avoid the copy.
      * @param node Node to get leaves under.  The root node will return all leaves in the tree, leaves return a list of just themselves.
      * @return List of leaves under this node.
      */
     public LinkedList getLeaves(TreeNode node)
     {
-        LinkedList leaves = new LinkedList();
-        TreeNode currNode = node.leftmostLeaf;
-        while (currNode != node.rightmostLeaf)
-            {
-                if (!currNode.isLeaf()) // internal node?
-                    currNode = currNode.leftmostLeaf; // descend to minimal leaf
-                leaves.add(currNode);
-                currNode = currNode.preorderNext;
-            }
-        leaves.add(node.rightmostLeaf);
-        return leaves;
+        return new LinkedList(getLeafView(node));
     }
 }
 
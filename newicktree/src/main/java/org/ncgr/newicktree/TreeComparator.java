@@ -0,0 +1,266 @@
+package org.ncgr.newicktree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares a collection of trees on the same leaves by their bipartitions (splits), for Robinson-Foulds and weighted
+ * Robinson-Foulds distances. Each tree's splits are computed as leaf bitsets in one postorder pass and kept in a hash map,
+ * so a distance costs one lookup per split rather than comparing leaf lists.
+ * <p>
+ * Trees are treated as unrooted: each split is stored with the side that doesn't hold the first leaf, so the two edges below
+ * a bifurcating root are one split, whose weight is the sum of theirs. The Robinson-Foulds distance counts the nontrivial splits
+ * (two or more leaves on each side) found in one tree but not the other. The weighted distance is the sum over all splits,
+ * terminal edges included, of the absolute difference of their weights, a split missing from a tree having weight zero.
+ *
+ * @author Sam Hokin
+ * @see CompactTree
+ */
+public class TreeComparator {
+
+    private List<CompactTree> trees;
+    private int numLeaves;
+    private int words;
+    // bit of each leaf by name index, -1 for names that aren't leaves
+    private int[] leafBits;
+    // the splits of each tree with their weights
+    private List<Map<Split,Float>> splits;
+    // the number of nontrivial splits of each tree
+    private int[] splitCounts;
+
+    /**
+     * Compute the splits of trees that have the same leaves and share a NameDictionary, in parallel.
+     * Leaves must be named, with no name repeated within a tree.
+     * @param trees The trees to compare.
+     * @throws IllegalArgumentException if the trees don't share a dictionary or have different leaves.
+     */
+    public TreeComparator(List<CompactTree> trees) {
+        this.trees = new ArrayList<>(trees);
+        if (trees.isEmpty()) {
+            splits = new ArrayList<>();
+            splitCounts = new int[0];
+            return;
+        }
+        CompactTree first = trees.get(0);
+        NameDictionary names = first.getNameDictionary();
+        leafBits = new int[names.size()];
+        Arrays.fill(leafBits, -1);
+        for (int n=0; n<first.size(); n++) {
+            if (!first.isLeaf(n)) continue;
+            int name = first.getNameIndex(n);
+            if (name<0) throw new IllegalArgumentException("Tree "+first.getName()+" has an unnamed leaf");
+            if (leafBits[name]>=0) throw new IllegalArgumentException("Tree "+first.getName()+" has more than one leaf named "+first.getName(n));
+            leafBits[name] = numLeaves++;
+        }
+        words = (numLeaves+63)/64;
+        for (CompactTree tree : trees) {
+            if (tree.getNameDictionary()!=names) throw new IllegalArgumentException("Tree "+tree.getName()+" doesn't share the name dictionary");
+            if (tree.getLeafCount()!=numLeaves) throw new IllegalArgumentException("Tree "+tree.getName()+" has "+tree.getLeafCount()+" leaves, not "+numLeaves);
+        }
+        // an ordered parallel stream keeps the splits in tree order
+        splits = trees.parallelStream().map(this::computeSplits).collect(Collectors.toList());
+        splitCounts = new int[trees.size()];
+        for (int i=0; i<splitCounts.length; i++) {
+            for (Split split : splits.get(i).keySet()) {
+                if (!split.trivial) splitCounts[i]++;
+            }
+        }
+    }
+
+    /**
+     * Compute the splits of Trees, converting them to CompactTrees with a shared dictionary.
+     * @param trees The post-processed trees to compare.
+     * @return The comparator.
+     */
+    public static TreeComparator fromTrees(List<Tree> trees) {
+        NameDictionary names = new NameDictionary();
+        List<CompactTree> compactTrees = new ArrayList<>();
+        for (Tree tree : trees) compactTrees.add(new CompactTree(tree, names));
+        return new TreeComparator(compactTrees);
+    }
+
+    /**
+     * @return The number of trees.
+     */
+    public int size() {
+        return trees.size();
+    }
+
+    /**
+     * @return The number of leaves in each tree.
+     */
+    public int getLeafCount() {
+        return numLeaves;
+    }
+
+    /**
+     * @return The number of nontrivial splits of a tree.
+     */
+    public int getSplitCount(int i) {
+        return splitCounts[i];
+    }
+
+    /**
+     * Return the Robinson-Foulds distance between two trees: the number of nontrivial splits in one but not the other.
+     * @param i The index of a tree.
+     * @param j The index of another tree.
+     * @return The Robinson-Foulds distance.
+     */
+    public int getRobinsonFoulds(int i, int j) {
+        Map<Split,Float> a = splits.get(i);
+        Map<Split,Float> b = splits.get(j);
+        int shared = 0;
+        for (Split split : a.keySet()) {
+            if (!split.trivial && b.containsKey(split)) shared++;
+        }
+        return getSplitCount(i)+getSplitCount(j)-2*shared;
+    }
+
+    /**
+     * Return the weighted Robinson-Foulds distance between two trees: the sum over all splits of the absolute difference of their weights.
+     * @param i The index of a tree.
+     * @param j The index of another tree.
+     * @return The weighted Robinson-Foulds distance.
+     */
+    public double getWeightedRobinsonFoulds(int i, int j) {
+        Map<Split,Float> a = splits.get(i);
+        Map<Split,Float> b = splits.get(j);
+        double distance = 0.0;
+        for (Map.Entry<Split,Float> entry : a.entrySet()) {
+            Float other = b.get(entry.getKey());
+            distance += Math.abs(entry.getValue()-(other==null ? 0.0 : other));
+        }
+        for (Map.Entry<Split,Float> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) distance += Math.abs(entry.getValue());
+        }
+        return distance;
+    }
+
+    /**
+     * Return the Robinson-Foulds distances between all pairs of trees, computed in parallel.
+     * @return The symmetric distance matrix.
+     */
+    public int[][] getRobinsonFouldsMatrix() {
+        int n = trees.size();
+        int[][] matrix = new int[n][n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+                for (int j=i+1; j<n; j++) {
+                    matrix[i][j] = getRobinsonFoulds(i, j);
+                    matrix[j][i] = matrix[i][j];
+                }
+            });
+        return matrix;
+    }
+
+    /**
+     * Return the weighted Robinson-Foulds distances between all pairs of trees, computed in parallel.
+     * @return The symmetric distance matrix.
+     */
+    public double[][] getWeightedRobinsonFouldsMatrix() {
+        int n = trees.size();
+        double[][] matrix = new double[n][n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+                for (int j=i+1; j<n; j++) {
+                    matrix[i][j] = getWeightedRobinsonFoulds(i, j);
+                    matrix[j][i] = matrix[i][j];
+                }
+            });
+        return matrix;
+    }
+
+    /**
+     * Compute the splits of a tree in one postorder pass, OR-ing each node's leaf bits into its parent's.
+     */
+    private Map<Split,Float> computeSplits(CompactTree tree) {
+        int size = tree.size();
+        long[][] bits = new long[size][];
+        Map<Split,Float> treeSplits = new HashMap<>(size*2);
+        // children come after their parents in preorder, so the reverse is a postorder
+        for (int n=size-1; n>0; n--) {
+            if (bits[n]==null) bits[n] = new long[words];
+            if (tree.isLeaf(n)) setLeafBit(tree, n, bits[n]);
+            int parent = tree.getParent(n);
+            if (bits[parent]==null) bits[parent] = new long[words];
+            for (int w=0; w<words; w++) {
+                // leaf sets of siblings are disjoint unless a leaf name is repeated
+                if ((bits[parent][w] & bits[n][w])!=0) {
+                    throw new IllegalArgumentException("Tree "+tree.getName()+" has more than one leaf named "+names(bits[parent][w] & bits[n][w], w));
+                }
+                bits[parent][w] |= bits[n][w];
+            }
+            treeSplits.merge(new Split(bits[n], numLeaves), tree.getWeight(n), Float::sum);
+            bits[n] = null; // no longer needed once OR-ed into the parent and copied into the split
+        }
+        // with no repeats and the same leaf count, the root must hold every leaf of the first tree
+        if (bits[0]==null) bits[0] = new long[words];
+        if (tree.isLeaf(0)) setLeafBit(tree, 0, bits[0]);
+        int count = 0;
+        for (long word : bits[0]) count += Long.bitCount(word);
+        if (count!=numLeaves) throw new IllegalArgumentException("Tree "+tree.getName()+" has "+count+" distinct leaves, not "+numLeaves);
+        return treeSplits;
+    }
+
+    /**
+     * Set the bit of a leaf.
+     */
+    private void setLeafBit(CompactTree tree, int n, long[] bits) {
+        int name = tree.getNameIndex(n);
+        int bit = (name>=0 && name<leafBits.length) ? leafBits[name] : -1;
+        if (bit<0) throw new IllegalArgumentException("Tree "+tree.getName()+" has leaf "+tree.getName(n)+" not in the first tree");
+        bits[bit>>>6] |= 1L<<bit;
+    }
+
+    /**
+     * Return the leaf names of the bits set in a word of a bitset, for error messages.
+     */
+    private String names(long word, int w) {
+        StringBuilder sb = new StringBuilder();
+        NameDictionary dictionary = trees.get(0).getNameDictionary();
+        for (int name=0; name<leafBits.length; name++) {
+            int bit = leafBits[name];
+            if (bit>=0 && bit>>>6==w && (word & 1L<<bit)!=0) {
+                if (sb.length()>0) sb.append(", ");
+                sb.append(dictionary.get(name));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A bipartition of the leaves, stored as the bitset of the side without leaf 0.
+     */
+    static class Split {
+        long[] bits;
+        boolean trivial;
+        int hash;
+
+        Split(long[] side, int numLeaves) {
+            bits = side.clone();
+            if ((bits[0] & 1L)!=0) {
+                for (int w=0; w<bits.length; w++) bits[w] = ~bits[w];
+                int extra = bits.length*64-numLeaves;
+                if (extra>0) bits[bits.length-1] &= -1L>>>extra;
+            }
+            int count = 0;
+            for (long word : bits) count += Long.bitCount(word);
+            trivial = (count<=1 || count>=numLeaves-1);
+            hash = Arrays.hashCode(bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Split) && hash==((Split) o).hash && Arrays.equals(bits, ((Split) o).bits);
+        }
+    }
+
+}
@@ -136,6 +136,10 @@ public class TreeNode {
     /** The number of leaves under this internal node (or 1 for leaves). */
     public int numberLeaves;
 
+    /** Index of this leaf among the leaves of the tree in preorder, set by Tree post-processing; -1 for internal nodes.
+     * The leaves under a node are those from leftmostLeaf.leafIndex to rightmostLeaf.leafIndex. */
+    public int leafIndex = -1;
+
     /** The next preorder node. */
     public TreeNode preorderNext = null;
 
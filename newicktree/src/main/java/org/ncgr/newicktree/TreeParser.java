@@ -10,13 +10,20 @@ import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.SequenceInputStream;
 import java.io.StreamTokenizer;
+import java.io.UncheckedIOException;
 
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.EmptyStackException;
+import java.util.Map;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.stream.IntStream;
 
 /**
  * @author James
@@ -498,20 +505,107 @@ public class TreeParser {
     }
     
     /**
-     * Read a Tree from a file.
+     * Read a Tree from a Newick file with {@link NewickScanner}.
+     * Errors other than a missing file are thrown as UncheckedIOException, to keep this method's original signature.
      */
     public static Tree readTree(File file) throws FileNotFoundException {
-        return readTree(new BufferedReader(new FileReader(file)), file.length(), file.getName());
+        try {
+            return readCompactTree(file, new NameDictionary()).toTree();
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read the first tree in a Newick file into a CompactTree with {@link NewickScanner}, named by the file name.
+     * @param file The Newick file.
+     * @param names The dictionary to hold the node names.
+     * @return The tree.
+     */
+    public static CompactTree readCompactTree(File file, NameDictionary names) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            CompactTree tree = new NewickScanner(in).nextTree(names);
+            if (tree==null) throw new IOException("No tree found in "+file);
+            tree.setName(file.getName());
+            return tree;
+        }
     }
 
     /**
-     * Read a Tree from a BufferedReader, supplying the length and name.
+     * Read a Tree from a BufferedReader, supplying the length and name, with the StreamTokenizer parser.
      */
     public static Tree readTree(BufferedReader reader, long length, String name) {
         TreeParser tp = new TreeParser(reader);
         return tp.tokenize(length, name);
     }        
 
+    /**
+     * Read the trees in a nexus file in parallel: the byte range of each tree statement is indexed in one scan,
+     * then the trees are parsed concurrently on the common fork-join pool. The file is read into memory, so must be under 2GB.
+     * @param file The nexus file.
+     * @param names The dictionary to hold the node names, shared by the parsing threads.
+     * @param burnin The number of trees to skip at the start.
+     * @return The trees, named by their nexus tree names, in file order.
+     */
+    public static List<CompactTree> readNexusTrees(File file, NameDictionary names, int burnin) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        List<TreeStatement> statements = indexNexusTrees(bytes, burnin);
+        CompactTree[] trees = new CompactTree[statements.size()];
+        try {
+            IntStream.range(0, trees.length).parallel().forEach(i -> {
+                    TreeStatement statement = statements.get(i);
+                    NewickScanner scanner = new NewickScanner(bytes, statement.start, statement.end-statement.start);
+                    scanner.setTranslation(statement.translation);
+                    try {
+                        trees[i] = scanner.nextTree(names);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    if (trees[i]==null) throw new UncheckedIOException(new IOException("Missing tree "+statement.name+" in "+file));
+                    trees[i].setName(statement.name);
+                });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return Arrays.asList(trees);
+    }
+
+    /**
+     * Index the tree statements in nexus file bytes past the burn-in, in file order.
+     */
+    static List<TreeStatement> indexNexusTrees(byte[] bytes, int burnin) throws IOException {
+        List<TreeStatement> statements = new ArrayList<>();
+        NewickScanner scanner = new NewickScanner(bytes, 0, bytes.length);
+        NexusTreeIterator iterator = new NexusTreeIterator(scanner, null, 0);
+        String name;
+        int count = 0;
+        while ((name=iterator.nextStatement())!=null) {
+            int start = scanner.getPosition();
+            scanner.skipStatement();
+            if (++count>burnin) statements.add(new TreeStatement(name, start, scanner.getPosition(), iterator.getTranslation()));
+        }
+        return statements;
+    }
+
+    /**
+     * The byte range of a nexus tree statement after its equals sign, with its name and TRANSLATE table.
+     */
+    static class TreeStatement {
+        String name;
+        int start;
+        int end;
+        Map<String,String> translation;
+
+        TreeStatement(String name, int start, int end, Map<String,String> translation) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+            this.translation = translation;
+        }
+    }
+
     /**
      * Test application function.
      * @param args list of filenames to parse
@@ -531,7 +625,7 @@ public class TreeParser {
                 recursivePrint(t, 0, 0);
                 System.out.println("Parsed in " + ((System.currentTimeMillis() - start)/1000.0) + " s");
                 System.out.println("------------------------------------------------------------------");
-            } catch (FileNotFoundException e) {
+            } catch (FileNotFoundException | UncheckedIOException e) {
                 System.err.println(e);
             }
         }
@@ -0,0 +1,159 @@
+package org.ncgr.newicktree;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests NewickScanner on quoting, comments, branch lengths and malformed input, from both byte arrays and streams.
+ *
+ * @author Sam Hokin
+ */
+public class NewickScannerTest {
+
+    static CompactTree scan(String newick) throws IOException {
+        byte[] bytes = newick.getBytes(StandardCharsets.UTF_8);
+        return new NewickScanner(bytes, 0, bytes.length).nextTree(new NameDictionary());
+    }
+
+    static CompactTree scanStream(String newick) throws IOException {
+        return new NewickScanner(new ByteArrayInputStream(newick.getBytes(StandardCharsets.UTF_8))).nextTree(new NameDictionary());
+    }
+
+    @Test
+    public void testStructure() throws IOException {
+        CompactTree tree = scan("((A,B)X,(C,D,E)Y)R;");
+        assertEquals(8, tree.size());
+        assertEquals(5, tree.getLeafCount());
+        assertEquals("R", tree.getName(tree.getRoot()));
+        int x = tree.getNode("X");
+        assertEquals(2, tree.numberChildren(x));
+        assertEquals(x, tree.getParent(tree.getNode("A")));
+        assertEquals(3, tree.numberChildren(tree.getNode("Y")));
+        assertTrue(tree.isLeaf(tree.getNode("E")));
+    }
+
+    @Test
+    public void testQuotedLabels() throws IOException {
+        CompactTree tree = scan("('Homo sapiens','it''s',\"say \"\"hi\"\"\",'a(b):c;d');");
+        assertEquals(4, tree.getLeafCount());
+        assertTrue(tree.getNode("Homo sapiens")>=0);
+        assertTrue(tree.getNode("it's")>=0);
+        assertTrue(tree.getNode("say \"hi\"")>=0);
+        assertTrue(tree.getNode("a(b):c;d")>=0);
+    }
+
+    @Test
+    public void testUnderscoresKept() throws IOException {
+        CompactTree tree = scan("(Homo_sapiens,Pan_troglodytes);");
+        assertTrue(tree.getNode("Homo_sapiens")>=0);
+    }
+
+    @Test
+    public void testComments() throws IOException {
+        CompactTree tree = scan("[header] ( A [&a=1] :1.5 [b] , [c] B:2 ) [d] ;");
+        assertEquals(2, tree.getLeafCount());
+        assertEquals(1.5f, tree.getWeight(tree.getNode("A")), 0f);
+        assertEquals(2.0f, tree.getWeight(tree.getNode("B")), 0f);
+    }
+
+    @Test
+    public void testBranchLengths() throws IOException {
+        CompactTree tree = scan("(A:1e-3,B:2.5E2,C:-1.5,D:.25,E:7,F:1.0e+2,G:3.14159265358979);");
+        assertEquals(0.001f, tree.getWeight(tree.getNode("A")), 0f);
+        assertEquals(250f, tree.getWeight(tree.getNode("B")), 0f);
+        assertEquals(-1.5f, tree.getWeight(tree.getNode("C")), 0f);
+        assertEquals(0.25f, tree.getWeight(tree.getNode("D")), 0f);
+        assertEquals(7f, tree.getWeight(tree.getNode("E")), 0f);
+        assertEquals(100f, tree.getWeight(tree.getNode("F")), 0f);
+        assertEquals((float) Math.PI, tree.getWeight(tree.getNode("G")), 1e-6f);
+    }
+
+    @Test
+    public void testSeveralTrees() throws IOException {
+        byte[] bytes = "(A,B);\n((A,B),C);\n".getBytes(StandardCharsets.UTF_8);
+        NewickScanner scanner = new NewickScanner(bytes, 0, bytes.length);
+        NameDictionary names = new NameDictionary();
+        assertEquals(2, scanner.nextTree(names).getLeafCount());
+        assertEquals(3, scanner.nextTree(names).getLeafCount());
+        assertNull(scanner.nextTree(names));
+    }
+
+    @Test
+    public void testEndOfInputTerminates() throws IOException {
+        assertEquals(2, scan("(A,B)").getLeafCount());
+    }
+
+    @Test
+    public void testStreamAcrossBuffers() throws IOException {
+        // long enough that labels and numbers straddle the scanner's read blocks
+        StringBuilder sb = new StringBuilder("(");
+        for (int i=0; i<20000; i++) {
+            if (i>0) sb.append(",");
+            sb.append("'leaf ").append(i).append("':").append(i).append(".5e-1");
+        }
+        sb.append(");");
+        CompactTree fromStream = scanStream(sb.toString());
+        CompactTree fromBytes = scan(sb.toString());
+        assertEquals(20000, fromStream.getLeafCount());
+        for (int n=0; n<fromStream.size(); n++) {
+            assertEquals(fromBytes.getName(n), fromStream.getName(n));
+            assertEquals(fromBytes.getWeight(n), fromStream.getWeight(n), 0f);
+        }
+        assertEquals(1999.95f, fromStream.getWeight(fromStream.getNode("leaf 19999")), 1e-3f);
+    }
+
+    @Test
+    public void testTranslateLeavesOnly() throws IOException {
+        Map<String,String> translation = new HashMap<>();
+        translation.put("1", "a");
+        translation.put("2", "b");
+        translation.put("3", "c");
+        byte[] bytes = "((1,2)3,3);".getBytes(StandardCharsets.UTF_8);
+        NewickScanner scanner = new NewickScanner(bytes, 0, bytes.length);
+        scanner.setTranslation(translation);
+        CompactTree tree = scanner.nextTree(new NameDictionary());
+        assertEquals("3", tree.getName(tree.getParent(tree.getNode("a"))));
+        assertTrue(tree.isLeaf(tree.getNode("c")));
+        assertTrue(tree.getNode("b")>=0);
+    }
+
+    @Test
+    public void testToTreeMatchesTreeParser() throws IOException {
+        String newick = "((A:1,B:2)X:3,(C:4,D:5)Y:6)R;";
+        Tree scanned = scan(newick).toTree();
+        Tree parsed = TreeParser.readTree(new java.io.BufferedReader(new java.io.StringReader(newick)), newick.length(), "test");
+        assertEquals(parsed.nodes.size(), scanned.nodes.size());
+        assertEquals(parsed.getLeafCount(), scanned.getLeafCount());
+        for (int key=0; key<parsed.nodes.size(); key++) {
+            assertEquals(parsed.getNodeByKey(key).getName(), scanned.getNodeByKey(key).getName());
+            assertEquals(parsed.getNodeByKey(key).getWeight(), scanned.getNodeByKey(key).getWeight(), 0f);
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnclosedParenthesis() throws IOException {
+        scan("((A,B),C;");
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnbalancedClose() throws IOException {
+        scan("(A,B));");
+    }
+
+    @Test(expected=IOException.class)
+    public void testCommaOutsideParentheses() throws IOException {
+        scan("A,B;");
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnterminatedQuote() throws IOException {
+        scan("('A,B);");
+    }
+
+}
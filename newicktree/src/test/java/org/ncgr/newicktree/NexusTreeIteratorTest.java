@@ -0,0 +1,133 @@
+package org.ncgr.newicktree;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests NexusTreeIterator on TRANSLATE tables, burn-in and the blocks and commands around the trees.
+ *
+ * @author Sam Hokin
+ */
+public class NexusTreeIteratorTest {
+
+    static final String NEXUS =
+        "#NEXUS\n" +
+        "[ a comment; with a semicolon ]\n" +
+        "BEGIN TAXA;\n" +
+        "  DIMENSIONS NTAX=3;\n" +
+        "  TAXLABELS alpha beta 'gamma delta';\n" +
+        "END;\n" +
+        "BEGIN TREES;\n" +
+        "  TRANSLATE\n" +
+        "    1 alpha,\n" +
+        "    2 beta,\n" +
+        "    3 'gamma delta'\n" +
+        "  ;\n" +
+        "  TREE one = [&U] ((1:1,2:2)3:0.5,3:4);\n" +
+        "  TREE two = ((1,3),2);\n" +
+        "  TREE * three = (1,(2,3));\n" +
+        "END;\n";
+
+    static NexusTreeIterator iterate(String nexus, int burnin) {
+        return new NexusTreeIterator(new ByteArrayInputStream(nexus.getBytes(StandardCharsets.UTF_8)), new NameDictionary(), burnin);
+    }
+
+    static List<CompactTree> readAll(NexusTreeIterator iterator) {
+        List<CompactTree> trees = new ArrayList<>();
+        while (iterator.hasNext()) trees.add(iterator.nextCompactTree());
+        return trees;
+    }
+
+    @Test
+    public void testNamesAndTranslation() throws IOException {
+        List<CompactTree> trees = readAll(iterate(NEXUS, 0));
+        assertEquals(3, trees.size());
+        assertEquals("one", trees.get(0).getName());
+        assertEquals("two", trees.get(1).getName());
+        assertEquals("three", trees.get(2).getName());
+        for (CompactTree tree : trees) {
+            assertEquals(3, tree.getLeafCount());
+            assertTrue(tree.isLeaf(tree.getNode("alpha")));
+            assertTrue(tree.isLeaf(tree.getNode("beta")));
+            assertTrue(tree.isLeaf(tree.getNode("gamma delta")));
+        }
+    }
+
+    @Test
+    public void testInternalLabelNotTranslated() throws IOException {
+        CompactTree tree = iterate(NEXUS, 0).nextCompactTree();
+        int cherry = tree.getParent(tree.getNode("alpha"));
+        assertEquals("3", tree.getName(cherry));
+        assertEquals(0.5f, tree.getWeight(cherry), 0f);
+        assertEquals(4f, tree.getWeight(tree.getNode("gamma delta")), 0f);
+    }
+
+    @Test
+    public void testBurnin() throws IOException {
+        NexusTreeIterator iterator = iterate(NEXUS, 2);
+        List<CompactTree> trees = readAll(iterator);
+        assertEquals(1, trees.size());
+        assertEquals("three", trees.get(0).getName());
+        assertEquals(3, iterator.getTreeCount());
+        assertEquals(0, readAll(iterate(NEXUS, 5)).size());
+    }
+
+    @Test
+    public void testNextEntry() throws IOException {
+        Map.Entry<String,Tree> entry = iterate(NEXUS, 1).next();
+        assertEquals("two", entry.getKey());
+        assertEquals(3, entry.getValue().getLeafCount());
+        assertNotNull(entry.getValue().getNodeByName("beta"));
+    }
+
+    @Test
+    public void testTranslationPerBlock() throws IOException {
+        String nexus = NEXUS +
+            "BEGIN TREES;\n" +
+            "  TRANSLATE 1 x, 2 y, 3 z;\n" +
+            "  TREE four = ((1,2),3);\n" +
+            "END;\n" +
+            "BEGIN TREES;\n" +
+            "  TREE five = ((1,2),3);\n" +
+            "END;\n";
+        List<CompactTree> trees = readAll(iterate(nexus, 0));
+        assertEquals(5, trees.size());
+        assertTrue(trees.get(3).getNode("x")>=0);
+        assertTrue(trees.get(3).getNode("alpha")<0);
+        // a block without a TRANSLATE command keeps the labels as they are
+        assertTrue(trees.get(4).getNode("1")>=0);
+    }
+
+    @Test
+    public void testNoTrees() throws IOException {
+        NexusTreeIterator iterator = iterate("#NEXUS\nBEGIN TAXA;\nDIMENSIONS NTAX=1;\nEND;\n", 0);
+        assertFalse(iterator.hasNext());
+        assertEquals(0, iterator.getTreeCount());
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void testNextPastEnd() throws IOException {
+        NexusTreeIterator iterator = iterate(NEXUS, 3);
+        iterator.next();
+    }
+
+    @Test(expected=UncheckedIOException.class)
+    public void testMalformedTree() throws IOException {
+        readAll(iterate("#NEXUS\nBEGIN TREES;\nTREE bad = ((1,2);\nEND;\n", 0));
+    }
+
+    @Test(expected=UncheckedIOException.class)
+    public void testIncompleteTranslate() throws IOException {
+        readAll(iterate("#NEXUS\nBEGIN TREES;\nTRANSLATE 1 alpha, 2;\nTREE t = (1,2);\nEND;\n", 0));
+    }
+
+}
@@ -0,0 +1,128 @@
+package org.ncgr.newicktree;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests TreeComparator's Robinson-Foulds distances against hand-computed values, and its checks on the leaves.
+ *
+ * @author Sam Hokin
+ */
+public class TreeComparatorTest {
+
+    static TreeComparator compare(String... newicks) throws IOException {
+        NameDictionary names = new NameDictionary();
+        List<CompactTree> trees = new ArrayList<>();
+        for (String newick : newicks) {
+            byte[] bytes = newick.getBytes(StandardCharsets.UTF_8);
+            trees.add(new NewickScanner(bytes, 0, bytes.length).nextTree(names));
+        }
+        return new TreeComparator(trees);
+    }
+
+    @Test
+    public void testIdenticalTrees() throws IOException {
+        TreeComparator comparator = compare("((A,B),(C,D),E);", "(E,(D,C),(B,A));");
+        assertEquals(5, comparator.getLeafCount());
+        assertEquals(2, comparator.getSplitCount(0));
+        assertEquals(0, comparator.getRobinsonFoulds(0, 1));
+    }
+
+    @Test
+    public void testDisjointSplits() throws IOException {
+        // AB|CDE and CD|ABE against AC|BDE and BD|ACE
+        TreeComparator comparator = compare("((A,B),(C,D),E);", "((A,C),(B,D),E);");
+        assertEquals(4, comparator.getRobinsonFoulds(0, 1));
+    }
+
+    @Test
+    public void testOneSharedSplit() throws IOException {
+        // AB|CDE is shared, DE|ABC and CE|ABD are not
+        TreeComparator comparator = compare("((A,B),C,(D,E));", "((A,B),D,(C,E));");
+        assertEquals(2, comparator.getRobinsonFoulds(0, 1));
+    }
+
+    @Test
+    public void testRootIsIgnored() throws IOException {
+        // the two root edges of the first tree are the one split AB|CD of the second
+        TreeComparator comparator = compare("((A,B),(C,D));", "(A,B,(C,D));");
+        assertEquals(1, comparator.getSplitCount(0));
+        assertEquals(1, comparator.getSplitCount(1));
+        assertEquals(0, comparator.getRobinsonFoulds(0, 1));
+    }
+
+    @Test
+    public void testWeightedRobinsonFoulds() throws IOException {
+        // AB|CD has weight 3+6 in the first tree and 1+1 in the second; the terminal edges differ at C (4 vs 2)
+        TreeComparator comparator = compare("((A:1,B:2):3,(C:4,D:5):6);", "((A:1,B:2):1,(C:2,D:5):1);");
+        assertEquals(9.0, comparator.getWeightedRobinsonFoulds(0, 1), 1e-6);
+        assertEquals(9.0, comparator.getWeightedRobinsonFoulds(1, 0), 1e-6);
+    }
+
+    @Test
+    public void testWeightedMissingSplit() throws IOException {
+        // AB|CDE (2) and CD|ABE (3) against AC|BDE (5) and BD|ACE (7), with equal terminal edges
+        TreeComparator comparator = compare("((A:1,B:1):2,(C:1,D:1):3,E:1);", "((A:1,C:1):5,(B:1,D:1):7,E:1);");
+        assertEquals(17.0, comparator.getWeightedRobinsonFoulds(0, 1), 1e-6);
+    }
+
+    @Test
+    public void testMatrices() throws IOException {
+        TreeComparator comparator = compare("((A,B),(C,D),E);", "((A,C),(B,D),E);", "((A,B),C,(D,E));");
+        int[][] rf = comparator.getRobinsonFouldsMatrix();
+        double[][] weighted = comparator.getWeightedRobinsonFouldsMatrix();
+        for (int i=0; i<3; i++) {
+            assertEquals(0, rf[i][i]);
+            for (int j=0; j<3; j++) {
+                assertEquals(comparator.getRobinsonFoulds(i, j), rf[i][j]);
+                assertEquals(rf[i][j], rf[j][i]);
+                assertEquals(comparator.getWeightedRobinsonFoulds(i, j), weighted[i][j], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testManyLeaves() throws IOException {
+        // more than 64 leaves, so splits span several words
+        StringBuilder caterpillar = new StringBuilder("L0");
+        StringBuilder swapped = new StringBuilder("L1");
+        for (int i=1; i<100; i++) {
+            caterpillar.insert(0, "(").append(",L"+i+")");
+            swapped.insert(0, "(").append(",L"+(i==1 ? 0 : i)+")");
+        }
+        TreeComparator comparator = compare(caterpillar+";", swapped+";");
+        assertEquals(100, comparator.getLeafCount());
+        assertEquals(0, comparator.getRobinsonFoulds(0, 1));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRepeatedLeafInLaterTree() throws IOException {
+        compare("((A,B),(C,D));", "((A,A),(C,D));");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testRepeatedLeafInFirstTree() throws IOException {
+        compare("((A,A),(C,D));", "((A,B),(C,D));");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testUnnamedLeafInLaterTree() throws IOException {
+        compare("((A,B),(C,D));", "((A,),(C,D));");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDifferentLeaves() throws IOException {
+        compare("((A,B),(C,D));", "((A,B),(C,E));");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testDifferentLeafCount() throws IOException {
+        compare("((A,B),(C,D));", "((A,B),C);");
+    }
+
+}
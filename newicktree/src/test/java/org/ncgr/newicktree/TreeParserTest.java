@@ -0,0 +1,122 @@
+package org.ncgr.newicktree;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests TreeParser's parallel nexus reading against the single-pass NexusTreeIterator.
+ *
+ * @author Sam Hokin
+ */
+public class TreeParserTest {
+
+    File file;
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("TreeParserTest", ".nex");
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    void write(String contents) throws IOException {
+        Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A nexus file of random trees on numbered leaves, translated to names, in two TREES blocks.
+     */
+    static String randomNexus(Random random, int numTrees, int numLeaves) {
+        StringBuilder sb = new StringBuilder("#NEXUS\n");
+        for (int block=0; block<2; block++) {
+            sb.append("BEGIN TREES;\n  TRANSLATE\n");
+            for (int i=0; i<numLeaves; i++) {
+                sb.append("    L").append(i).append(" 'taxon ").append(block).append(".").append(i).append("'");
+                sb.append(i<numLeaves-1 ? ",\n" : ";\n");
+            }
+            for (int t=0; t<numTrees/2; t++) {
+                sb.append("  TREE tree_").append(block).append("_").append(t).append(" = [&U] ").append(TreeTest.randomNewick(random, numLeaves)).append("\n");
+            }
+            sb.append("END;\n");
+        }
+        return sb.toString();
+    }
+
+    static void assertSameTree(CompactTree expected, CompactTree actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.size(), actual.size());
+        for (int n=0; n<expected.size(); n++) {
+            assertEquals(expected.getParent(n), actual.getParent(n));
+            assertEquals(expected.getName(n), actual.getName(n));
+            assertEquals(expected.getWeight(n), actual.getWeight(n), 0f);
+        }
+    }
+
+    List<CompactTree> iterate(int burnin) throws IOException {
+        List<CompactTree> trees = new ArrayList<>();
+        try (NexusTreeIterator iterator = new NexusTreeIterator(new FileInputStream(file), new NameDictionary(), burnin)) {
+            while (iterator.hasNext()) trees.add(iterator.nextCompactTree());
+        }
+        return trees;
+    }
+
+    @Test
+    public void testParallelMatchesIterator() throws IOException {
+        write(randomNexus(new Random(22), 400, 30));
+        List<CompactTree> expected = iterate(0);
+        List<CompactTree> actual = TreeParser.readNexusTrees(file, new NameDictionary(), 0);
+        assertEquals(400, actual.size());
+        for (int i=0; i<expected.size(); i++) assertSameTree(expected.get(i), actual.get(i));
+        assertTrue(actual.get(399).getNode("taxon 1.0")>=0);
+    }
+
+    @Test
+    public void testBurnin() throws IOException {
+        write(randomNexus(new Random(7), 40, 10));
+        List<CompactTree> expected = iterate(25);
+        List<CompactTree> actual = TreeParser.readNexusTrees(file, new NameDictionary(), 25);
+        assertEquals(15, actual.size());
+        assertEquals("tree_1_5", actual.get(0).getName());
+        for (int i=0; i<expected.size(); i++) assertSameTree(expected.get(i), actual.get(i));
+    }
+
+    @Test
+    public void testSharedDictionary() throws IOException {
+        write(randomNexus(new Random(3), 20, 8));
+        NameDictionary names = new NameDictionary();
+        List<CompactTree> trees = TreeParser.readNexusTrees(file, names, 0);
+        for (CompactTree tree : trees) assertSame(names, tree.getNameDictionary());
+        // the two blocks' taxa, with internal nodes unnamed
+        assertEquals(16, names.size());
+    }
+
+    @Test(expected=IOException.class)
+    public void testMalformedTree() throws IOException {
+        write("#NEXUS\nBEGIN TREES;\nTREE good = (a,b);\nTREE bad = ((a,b);\nEND;\n");
+        TreeParser.readNexusTrees(file, new NameDictionary(), 0);
+    }
+
+    @Test
+    public void testReadCompactTree() throws IOException {
+        write("((A:1,B:2):3,C:4);\n");
+        CompactTree tree = TreeParser.readCompactTree(file, new NameDictionary());
+        assertEquals(file.getName(), tree.getName());
+        assertEquals(3, tree.getLeafCount());
+        assertEquals(3, TreeParser.readTree(file).getLeafCount());
+    }
+
+}
@@ -0,0 +1,131 @@
+package org.ncgr.newicktree;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the LCA index queries on Tree against naive walks up the parent pointers.
+ *
+ * @author Sam Hokin
+ */
+public class TreeTest {
+
+    static Tree parse(String newick) throws IOException {
+        byte[] bytes = newick.getBytes(StandardCharsets.UTF_8);
+        return new NewickScanner(bytes, 0, bytes.length).nextTree(new NameDictionary()).toTree();
+    }
+
+    /**
+     * A random tree of the given number of leaves, with random weights.
+     */
+    static String randomNewick(Random random, int leaves) {
+        StringBuilder sb = new StringBuilder();
+        int[] next = {0};
+        appendSubtree(sb, random, leaves, next);
+        return sb.append(";").toString();
+    }
+
+    static void appendSubtree(StringBuilder sb, Random random, int leaves, int[] next) {
+        if (leaves==1) {
+            sb.append("L").append(next[0]++);
+        } else {
+            int children = Math.min(leaves, 2+random.nextInt(2));
+            sb.append("(");
+            int remaining = leaves;
+            for (int c=0; c<children; c++) {
+                int size = (c==children-1) ? remaining : 1+random.nextInt(remaining-(children-c-1));
+                remaining -= size;
+                if (c>0) sb.append(",");
+                appendSubtree(sb, random, size, next);
+            }
+            sb.append(")");
+        }
+        sb.append(":").append(random.nextInt(100)/10.0);
+    }
+
+    static boolean naiveIsAncestor(TreeNode a, TreeNode b) {
+        for (TreeNode n=b; n!=null; n=n.parent) {
+            if (n==a) return true;
+        }
+        return false;
+    }
+
+    static TreeNode naiveLCA(TreeNode a, TreeNode b) {
+        for (TreeNode n=a; n!=null; n=n.parent) {
+            if (naiveIsAncestor(n, b)) return n;
+        }
+        return null;
+    }
+
+    static double naivePatristicDistance(TreeNode a, TreeNode b) {
+        TreeNode lca = naiveLCA(a, b);
+        double distance = 0.0;
+        for (TreeNode n=a; n!=lca; n=n.parent) distance += n.getWeight();
+        for (TreeNode n=b; n!=lca; n=n.parent) distance += n.getWeight();
+        return distance;
+    }
+
+    @Test
+    public void testLCAAgainstParentWalk() throws IOException {
+        Random random = new Random(23);
+        for (int t=0; t<50; t++) {
+            Tree tree = parse(randomNewick(random, 2+random.nextInt(40)));
+            tree.buildLCAIndex();
+            for (TreeNode a : tree.nodes) {
+                for (TreeNode b : tree.nodes) {
+                    assertSame(naiveLCA(a, b), tree.getLCA(a, b));
+                    assertEquals(naiveIsAncestor(a, b), tree.isAncestor(a, b));
+                    assertEquals(naivePatristicDistance(a, b), tree.getPatristicDistance(a, b), 1e-4);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLCAOfLeaves() throws IOException {
+        Tree tree = parse("((A:1,B:2)X:3,(C:4,D:5)Y:6)R;");
+        tree.buildLCAIndex();
+        TreeNode a = tree.getNodeByName("A");
+        TreeNode b = tree.getNodeByName("B");
+        TreeNode c = tree.getNodeByName("C");
+        assertEquals("X", tree.getLCA(a, b).getName());
+        assertEquals("R", tree.getLCA(a, c).getName());
+        assertSame(a, tree.getLCA(a, a));
+        assertEquals(3.0, tree.getPatristicDistance(a, b), 1e-6);
+        assertEquals(14.0, tree.getPatristicDistance(a, c), 1e-6);
+        assertTrue(tree.isAncestor(tree.getRoot(), c));
+        assertFalse(tree.isAncestor(a, b));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testLCAWithoutIndex() throws IOException {
+        Tree tree = parse("((A,B),C);");
+        tree.getLCA(tree.getNodeByName("A"), tree.getNodeByName("B"));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testPatristicDistanceWithoutIndex() throws IOException {
+        Tree tree = parse("((A,B),C);");
+        tree.getPatristicDistance(tree.getNodeByName("A"), tree.getNodeByName("B"));
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testIsAncestorWithoutIndex() throws IOException {
+        Tree tree = parse("((A,B),C);");
+        tree.isAncestor(tree.getRoot(), tree.getNodeByName("B"));
+    }
+
+    @Test
+    public void testCopyKeepsIndex() throws IOException {
+        Tree tree = parse("((A:1,B:2):3,C:4);");
+        tree.buildLCAIndex();
+        Tree copy = new Tree(tree);
+        assertSame(tree.getLCAIndex(), copy.getLCAIndex());
+        assertEquals(8.0, copy.getPatristicDistance(copy.getNodeByName("A"), copy.getNodeByName("C")), 1e-6);
+    }
+
+}